@@ -0,0 +1,25 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Reported by JMH as an extra bytes/s score next to the ops/s one
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class ByteCounter {
+  public long bytes;
+
+  @Setup(Level.Iteration)
+  public void clean() {
+    bytes = 0;
+  }
+}
@@ -0,0 +1,120 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.bench;
+
+import leon.core.LeonPacker;
+import leon.core.LeonRegistry;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/*
+  Deterministic datasets shared by the benchmarks, each one is a list of
+  top-level values.
+*/
+final class Datasets {
+  private Datasets() {
+  }
+
+  static final int NUM_VALUES = 1000;
+  // Registry for the UUID, Instant and BigDecimal values of "domain"
+  static final LeonRegistry REGISTRY = new LeonRegistry().registerStandardTypes();
+  private static final String[] FIELDS = {"id", "timestamp", "user", "email", "score", "tags", "active", "payload"};
+
+  static List<Object> generate(String name) {
+    Random rnd = new Random(42);
+    List<Object> values = new ArrayList<>(NUM_VALUES);
+    for(int i = 0; i < NUM_VALUES; i++) {
+      values.add(value(name, rnd));
+    }
+    return values;
+  }
+
+  private static Object value(String name, Random rnd) {
+    switch(name) {
+      case "smallInts":
+        return (long) (rnd.nextInt(64) - 32);
+      case "largeInts":
+        return rnd.nextLong();
+      case "doubles":
+        return rnd.nextDouble() * 1e6;
+      case "shortStrings":
+        return string(rnd, 4 + rnd.nextInt(24), false);
+      case "longStrings":
+        return string(rnd, 200 + rnd.nextInt(2000), true);
+      case "nested":
+        return record(rnd);
+      case "domain":
+        return domainRecord(rnd);
+      case "mixed":
+        return value(new String[]{"smallInts", "largeInts", "doubles", "shortStrings", "nested"}[rnd.nextInt(5)], rnd);
+      default:
+        throw new IllegalArgumentException("Unknown dataset " + name);
+    }
+  }
+
+  private static Map<Object, Object> record(Random rnd) {
+    Map<Object, Object> map = new HashMap<>();
+    map.put(FIELDS[0], (long) rnd.nextInt(1 << 20));
+    map.put(FIELDS[1], 1600000000000L + rnd.nextInt(Integer.MAX_VALUE));
+    map.put(FIELDS[2], string(rnd, 6 + rnd.nextInt(10), false));
+    map.put(FIELDS[3], string(rnd, 10 + rnd.nextInt(20), false) + "@example.com");
+    map.put(FIELDS[4], rnd.nextDouble());
+    List<Object> tags = new ArrayList<>();
+    int num_tags = rnd.nextInt(20);
+    for(int i = 0; i < num_tags; i++) {
+      tags.add(string(rnd, 3 + rnd.nextInt(8), false));
+    }
+    map.put(FIELDS[5], tags);
+    map.put(FIELDS[6], rnd.nextBoolean());
+    List<Object> payload = new ArrayList<>();
+    for(int i = 0; i < 8; i++) {
+      payload.add((long) rnd.nextInt(1000));
+    }
+    map.put(FIELDS[7], payload);
+    return map;
+  }
+
+  // Records of standard registry types packed as custom extensions
+  private static Map<Object, Object> domainRecord(Random rnd) {
+    Map<Object, Object> map = new HashMap<>();
+    map.put("id", new UUID(rnd.nextLong(), rnd.nextLong()));
+    map.put("created", Instant.ofEpochSecond(1600000000L + rnd.nextInt(Integer.MAX_VALUE), rnd.nextInt(1000000000)));
+    map.put("amount", BigDecimal.valueOf(rnd.nextInt(10000000), 2));
+    map.put("owner", string(rnd, 6 + rnd.nextInt(10), false));
+    map.put("count", (long) rnd.nextInt(1000));
+    return map;
+  }
+
+  private static String string(Random rnd, int length, boolean unicode) {
+    StringBuilder sb = new StringBuilder(length);
+    for(int i = 0; i < length; i++) {
+      if(unicode && rnd.nextInt(10) == 0) {
+        sb.append((char) (0xA0 + rnd.nextInt(0x700)));
+      } else {
+        sb.append((char) ('a' + rnd.nextInt(26)));
+      }
+    }
+    return sb.toString();
+  }
+
+  static byte[] encode(List<Object> values) throws IOException {
+    LeonPacker pkr = new LeonPacker();
+    pkr.setRegistry(REGISTRY);
+    for(Object v : values) {
+      pkr.packObject(v);
+    }
+    return pkr.toByteArray();
+  }
+}
@@ -0,0 +1,52 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.bench;
+
+import leon.core.LeonPacker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PackBenchmark {
+  @Param({"smallInts", "largeInts", "doubles", "shortStrings", "longStrings", "nested", "domain", "mixed"})
+  public String dataset;
+
+  private List<Object> values;
+  private LeonPacker packer;
+
+  @Setup
+  public void setup() {
+    values = Datasets.generate(dataset);
+    packer = new LeonPacker();
+    packer.setRegistry(Datasets.REGISTRY);
+  }
+
+  @Benchmark
+  public int packObject(ByteCounter counter) throws IOException {
+    packer.reset();
+    for(Object v : values) {
+      packer.packObject(v);
+    }
+    counter.bytes += packer.size();
+    return packer.size();
+  }
+}
@@ -0,0 +1,112 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.bench;
+
+import leon.core.LeonException;
+import leon.core.LeonPacker;
+import leon.core.ToLeon;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/*
+  packObject, which dispatches scalars with instanceof checks and other
+  values through the registry's per class encoders, against the chain of
+  instanceof checks of the baseline. Both recurse into lists and maps with
+  their own dispatch and share the pack methods.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegistryDispatchBenchmark {
+  @Param({"doubles", "nested", "mixed"})
+  public String dataset;
+
+  private List<Object> values;
+  private LeonPacker packer;
+
+  @Setup
+  public void setup() {
+    values = Datasets.generate(dataset);
+    packer = new LeonPacker();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void chain(LeonPacker packer, Object obj) throws IOException {
+    if(obj instanceof Byte) {
+      packer.packInt((Byte) obj);
+    } else if(obj instanceof Short) {
+      packer.packInt((Short) obj);
+    } else if(obj instanceof Integer) {
+      packer.packInt((Integer) obj);
+    } else if(obj instanceof Long) {
+      packer.packInt((Long) obj);
+    } else if(obj instanceof Float) {
+      packer.packFloat((float) obj);
+    } else if(obj instanceof Double) {
+      packer.packDouble((double) obj);
+    } else if(obj == null) {
+      packer.packNull();
+    } else if(obj instanceof Boolean) {
+      packer.packBoolean((boolean) obj);
+    } else if(obj instanceof String) {
+      packer.packString((String) obj);
+    } else if(obj instanceof List) {
+      List<Object> list = (List<Object>) obj;
+      packer.packListTag(list.size());
+      for(Object x : list) {
+        chain(packer, x);
+      }
+    } else if(obj instanceof Map) {
+      Map<Object, Object> map = (Map<Object, Object>) obj;
+      packer.packMapTag(map.size());
+      for(Map.Entry<Object, Object> entry : map.entrySet()) {
+        chain(packer, entry.getKey());
+        chain(packer, entry.getValue());
+      }
+    } else if(obj instanceof byte[]) {
+      packer.packBytes((byte[]) obj);
+    } else if(obj instanceof ToLeon) {
+      ((ToLeon) obj).toLeon(packer);
+    } else {
+      throw new LeonException("Unable to pack object, implement ToLeon interface", LeonException.Reason.UnableToPackObj);
+    }
+  }
+
+  @Benchmark
+  public int packObject(ByteCounter counter) throws IOException {
+    packer.reset();
+    for(Object v : values) {
+      packer.packObject(v);
+    }
+    counter.bytes += packer.size();
+    return packer.size();
+  }
+
+  @Benchmark
+  public int instanceofChain(ByteCounter counter) throws IOException {
+    packer.reset();
+    for(Object v : values) {
+      chain(packer, v);
+    }
+    counter.bytes += packer.size();
+    return packer.size();
+  }
+}
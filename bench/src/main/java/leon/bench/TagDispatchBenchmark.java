@@ -0,0 +1,161 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.bench;
+
+import leon.core.LeonException;
+import leon.core.LeonUnpacker;
+import leon.core.Tags;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+  Decoding dispatched on the tag kind table against the chain of mask
+  checks it replaced, copied here since the Tags predicates now read the
+  table too. Both decoders share everything else, so only the dispatch
+  differs.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TagDispatchBenchmark {
+  @Param({"nested", "mixed"})
+  public String dataset;
+
+  private byte[] encoded;
+
+  @Setup
+  public void setup() throws IOException {
+    encoded = Datasets.encode(Datasets.generate(dataset));
+  }
+
+  private static Object table(LeonUnpacker unpkr, int tag) throws IOException {
+    switch(Tags.kind(tag)) {
+      case Tags.KIND_INT:
+        return unpkr.unpackIntWithTag(tag);
+      case Tags.KIND_FLOAT:
+        return unpkr.unpackFloatWithTag(tag);
+      case Tags.KIND_DOUBLE:
+        return unpkr.unpackDoubleWithTag(tag);
+      case Tags.KIND_NULL:
+        return null;
+      case Tags.KIND_TRUE:
+        return true;
+      case Tags.KIND_FALSE:
+        return false;
+      case Tags.KIND_STRING:
+        return unpkr.unpackStringWithTag(tag);
+      case Tags.KIND_LIST:
+        return list(unpkr, tag, true);
+      case Tags.KIND_MAP:
+        return map(unpkr, tag, true);
+      case Tags.KIND_BYTES:
+        return unpkr.unpackBytesWithTag(tag);
+      default:
+        throw new LeonException("Unable to unpack object", LeonException.Reason.UnableToUnpackObj);
+    }
+  }
+
+  private static boolean isInt(int tag) {
+    return (tag & 0xC0) == 0x00 || (tag & 0x80) == 0x80 || tag == Tags.FIXED_INT64_TAG;
+  }
+
+  private static boolean isString(int tag) {
+    return (tag & 0xE0) == Tags.STR_TAG;
+  }
+
+  private static boolean isList(int tag) {
+    return (tag & 0xF0) == Tags.LIST_TAG;
+  }
+
+  private static boolean isMap(int tag) {
+    return (tag & 0xF8) == Tags.MAP_TAG;
+  }
+
+  private static Object chain(LeonUnpacker unpkr, int tag) throws IOException {
+    if(tag != Tags.EOF && isInt(tag)) {
+      return unpkr.unpackIntWithTag(tag);
+    } else if(tag == Tags.FLOAT_TAG) {
+      return unpkr.unpackFloatWithTag(tag);
+    } else if(tag == Tags.DOUBLE_TAG) {
+      return unpkr.unpackDoubleWithTag(tag);
+    } else if(tag == Tags.NULL) {
+      return null;
+    } else if(tag == Tags.TRUE) {
+      return true;
+    } else if(tag == Tags.FALSE) {
+      return false;
+    } else if(isString(tag)) {
+      return unpkr.unpackStringWithTag(tag);
+    } else if(isList(tag)) {
+      return list(unpkr, tag, false);
+    } else if(isMap(tag)) {
+      return map(unpkr, tag, false);
+    } else if(tag == Tags.BYTES_TAG) {
+      return unpkr.unpackBytesWithTag(tag);
+    }
+    throw new LeonException("Unable to unpack object", LeonException.Reason.UnableToUnpackObj);
+  }
+
+  private static Object next(LeonUnpacker unpkr, boolean table) throws IOException {
+    int tag = unpkr.nextTag();
+    return table ? table(unpkr, tag) : chain(unpkr, tag);
+  }
+
+  private static List<Object> list(LeonUnpacker unpkr, int tag, boolean table) throws IOException {
+    int length = (int) unpkr.unpackListLengthWithTag(tag);
+    List<Object> list = new ArrayList<>(length);
+    for(int i = 0; i < length; i++) {
+      list.add(next(unpkr, table));
+    }
+    return list;
+  }
+
+  private static Map<Object, Object> map(LeonUnpacker unpkr, int tag, boolean table) throws IOException {
+    int size = (int) unpkr.unpackMapSizeWithTag(tag);
+    Map<Object, Object> map = new HashMap<>(size * 2);
+    for(int i = 0; i < size; i++) {
+      Object key = next(unpkr, table);
+      map.put(key, next(unpkr, table));
+    }
+    return map;
+  }
+
+  @Benchmark
+  public void kindTable(ByteCounter counter, Blackhole bh) throws IOException {
+    LeonUnpacker unpkr = new LeonUnpacker(encoded);
+    for(int i = 0; i < Datasets.NUM_VALUES; i++) {
+      bh.consume(next(unpkr, true));
+    }
+    counter.bytes += encoded.length;
+  }
+
+  @Benchmark
+  public void predicateChain(ByteCounter counter, Blackhole bh) throws IOException {
+    LeonUnpacker unpkr = new LeonUnpacker(encoded);
+    for(int i = 0; i < Datasets.NUM_VALUES; i++) {
+      bh.consume(next(unpkr, false));
+    }
+    counter.bytes += encoded.length;
+  }
+}
@@ -0,0 +1,59 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.bench;
+
+import leon.core.LeonUnpacker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UnpackBenchmark {
+  @Param({"smallInts", "largeInts", "doubles", "shortStrings", "longStrings", "nested", "domain", "mixed"})
+  public String dataset;
+
+  private byte[] encoded;
+
+  @Setup
+  public void setup() throws IOException {
+    encoded = Datasets.encode(Datasets.generate(dataset));
+  }
+
+  @Benchmark
+  public void unpackObject(ByteCounter counter, Blackhole bh) throws IOException {
+    LeonUnpacker unpkr = new LeonUnpacker(encoded);
+    unpkr.setRegistry(Datasets.REGISTRY);
+    for(int i = 0; i < Datasets.NUM_VALUES; i++) {
+      bh.consume(unpkr.unpackObject());
+    }
+    counter.bytes += encoded.length;
+  }
+
+  @Benchmark
+  public long skipObject(ByteCounter counter) throws IOException {
+    LeonUnpacker unpkr = new LeonUnpacker(encoded);
+    for(int i = 0; i < Datasets.NUM_VALUES; i++) {
+      unpkr.skipObject(unpkr.nextTag());
+    }
+    counter.bytes += encoded.length;
+    return unpkr.position();
+  }
+}
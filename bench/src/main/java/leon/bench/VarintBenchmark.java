@@ -0,0 +1,75 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.bench;
+
+import leon.core.LeonPacker;
+import leon.core.LeonUnpacker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/*
+  Integer decoding from a byte array, which loads 8 bytes at once, against
+  a read-only view of the same array, which is read one byte at a time.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VarintBenchmark {
+  // Encoded size of the integers in bytes
+  @Param({"2", "3", "5", "9"})
+  public int width;
+
+  private byte[] encoded;
+  private ByteBuffer readOnly;
+
+  @Setup
+  public void setup() throws IOException {
+    Random rnd = new Random(42);
+    LeonPacker pkr = new LeonPacker();
+    long min = 1L << (7 * width - 8);
+    for(int i = 0; i < Datasets.NUM_VALUES; i++) {
+      long x = min + (rnd.nextLong() & (min - 1));
+      pkr.packInt(rnd.nextBoolean() ? x : -x - 1);
+    }
+    encoded = pkr.toByteArray();
+    readOnly = ByteBuffer.wrap(encoded).asReadOnlyBuffer();
+  }
+
+  private static long unpack(LeonUnpacker unpkr) throws IOException {
+    long sum = 0;
+    for(int i = 0; i < Datasets.NUM_VALUES; i++) {
+      sum += unpkr.unpackInt();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public long wordAtATime(ByteCounter counter) throws IOException {
+    counter.bytes += encoded.length;
+    return unpack(new LeonUnpacker(encoded));
+  }
+
+  @Benchmark
+  public long byteAtATime(ByteCounter counter) throws IOException {
+    counter.bytes += encoded.length;
+    return unpack(new LeonUnpacker(readOnly.duplicate()));
+  }
+}
@@ -0,0 +1,382 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.codegen;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/*
+  Generates, for every class annotated with @LeonSerializable, a final class
+  <Outer>_<Name>_LeonCodec in the same package implementing LeonCodec. An
+  object is encoded as a map from field names to field values, in field
+  declaration order, so it can also be read with unpackMap. Primitive
+  fields are packed and unpacked with the typed methods without boxing,
+  keys are matched on their UTF-8 bytes and unknown keys are skipped.
+  Fields of another @LeonSerializable type use its codec, any other
+  declared type goes through packObject and unpackObject.
+*/
+@SupportedAnnotationTypes("leon.codegen.LeonSerializable")
+public final class LeonProcessor extends AbstractProcessor {
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    for(Element element : roundEnv.getElementsAnnotatedWith(LeonSerializable.class)) {
+      if(element.getKind() != ElementKind.CLASS) {
+        error(element, "@LeonSerializable applies only to classes");
+        continue;
+      }
+      try {
+        generate((TypeElement) element);
+      } catch(IOException e) {
+        error(element, "Unable to write codec: " + e.getMessage());
+      }
+    }
+    return true;
+  }
+
+  private void error(Element element, String msg) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, msg, element);
+  }
+
+  static String codecName(TypeElement type) {
+    StringBuilder sb = new StringBuilder(type.getSimpleName());
+    Element enclosing = type.getEnclosingElement();
+    while(enclosing instanceof TypeElement) {
+      sb.insert(0, enclosing.getSimpleName() + "_");
+      enclosing = enclosing.getEnclosingElement();
+    }
+    return sb.append("_LeonCodec").toString();
+  }
+
+  private boolean validate(TypeElement type, List<VariableElement> fields) {
+    boolean ok = true;
+    if(!type.getTypeParameters().isEmpty()) {
+      error(type, "@LeonSerializable classes cannot be generic");
+      ok = false;
+    }
+    if(type.getModifiers().contains(Modifier.ABSTRACT)) {
+      error(type, "@LeonSerializable classes cannot be abstract");
+      ok = false;
+    }
+    if(type.getNestingKind().isNested() && !type.getModifiers().contains(Modifier.STATIC)) {
+      error(type, "Nested @LeonSerializable classes must be static");
+      ok = false;
+    }
+    // The codec is a top-level class of the same package
+    for(Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+      if(e.getModifiers().contains(Modifier.PRIVATE)) {
+        error(type, "@LeonSerializable classes and their enclosing classes cannot be private");
+        ok = false;
+        break;
+      }
+    }
+    boolean constructor = false;
+    for(ExecutableElement c : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+      constructor |= c.getParameters().isEmpty() && !c.getModifiers().contains(Modifier.PRIVATE);
+    }
+    if(!constructor) {
+      error(type, "@LeonSerializable classes need a non-private no-argument constructor");
+      ok = false;
+    }
+    for(VariableElement field : fields) {
+      if(field.getModifiers().contains(Modifier.PRIVATE) || field.getModifiers().contains(Modifier.FINAL)) {
+        error(field, "Serialized fields cannot be private or final, mark them transient to skip them");
+        ok = false;
+      } else if(field.asType().getKind() == TypeKind.ARRAY && arrayKind((ArrayType) field.asType()) == null) {
+        error(field, "Unsupported array type " + field.asType());
+        ok = false;
+      }
+    }
+    return ok;
+  }
+
+  private void generate(TypeElement type) throws IOException {
+    List<VariableElement> fields = new ArrayList<>();
+    for(VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+      Set<Modifier> mods = field.getModifiers();
+      if(!mods.contains(Modifier.STATIC) && !mods.contains(Modifier.TRANSIENT)) {
+        fields.add(field);
+      }
+    }
+    if(!validate(type, fields)) {
+      return;
+    }
+    String pkg = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+    String codec = codecName(type);
+    String name = type.getQualifiedName().toString();
+
+    StringBuilder sb = new StringBuilder();
+    if(!pkg.isEmpty()) {
+      sb.append("package ").append(pkg).append(";\n\n");
+    }
+    sb.append("// Generated by leon.codegen.LeonProcessor from ").append(name).append(", do not edit\n");
+    sb.append("public final class ").append(codec).append(" implements leon.core.LeonCodec<").append(name).append("> {\n");
+    sb.append("  public static final ").append(codec).append(" INSTANCE = new ").append(codec).append("();\n\n");
+    sb.append("  private static final byte[][] KEYS = {\n");
+    for(VariableElement field : fields) {
+      sb.append("    ").append(literal(field)).append(".getBytes(java.nio.charset.StandardCharsets.UTF_8),\n");
+    }
+    sb.append("  };\n\n");
+
+    sb.append("  @Override\n");
+    sb.append("  public leon.core.LeonPacker pack(leon.core.LeonPacker packer, ").append(name)
+      .append(" value) throws java.io.IOException {\n");
+    sb.append("    if(value == null) {\n");
+    sb.append("      return packer.packNull();\n");
+    sb.append("    }\n");
+    sb.append("    packer.packMapTag(").append(fields.size()).append(");\n");
+    for(VariableElement field : fields) {
+      sb.append("    packer.packKey(").append(literal(field)).append(");\n");
+      packField(sb, field.asType(), "value." + field.getSimpleName());
+    }
+    sb.append("    return packer;\n");
+    sb.append("  }\n\n");
+
+    sb.append("  @Override\n");
+    sb.append("  public ").append(name).append(" unpack(leon.core.LeonUnpacker unpacker) throws java.io.IOException {\n");
+    sb.append("    return unpackWithTag(unpacker, unpacker.nextTag());\n");
+    sb.append("  }\n\n");
+
+    sb.append("  @SuppressWarnings(\"unchecked\")\n");
+    sb.append("  public ").append(name).append(" unpackWithTag(leon.core.LeonUnpacker unpacker, int tag) throws java.io.IOException {\n");
+    sb.append("    if(tag == leon.core.Tags.NULL) {\n");
+    sb.append("      return null;\n");
+    sb.append("    }\n");
+    sb.append("    long size = unpacker.unpackMapSizeWithTag(tag);\n");
+    sb.append("    ").append(name).append(" value = new ").append(name).append("();\n");
+    sb.append("    for(long i = 0; i < size; i++) {\n");
+    sb.append("      int field = unpacker.unpackStringIndexWithTag(unpacker.nextTag(), KEYS);\n");
+    sb.append("      tag = unpacker.nextTag();\n");
+    sb.append("      switch(field) {\n");
+    for(int i = 0; i < fields.size(); i++) {
+      VariableElement field = fields.get(i);
+      sb.append("        case ").append(i).append(":\n");
+      sb.append("          value.").append(field.getSimpleName()).append(" = ").append(unpackExpr(field.asType())).append(";\n");
+      sb.append("          break;\n");
+    }
+    sb.append("        default:\n");
+    sb.append("          unpacker.skipObject(tag);\n");
+    sb.append("      }\n");
+    sb.append("    }\n");
+    sb.append("    return value;\n");
+    sb.append("  }\n");
+    sb.append("}\n");
+
+    String qualified = pkg.isEmpty() ? codec : pkg + "." + codec;
+    JavaFileObject file = processingEnv.getFiler().createSourceFile(qualified, type);
+    try(Writer w = file.openWriter()) {
+      w.write(sb.toString());
+    }
+  }
+
+  private static String literal(VariableElement field) {
+    StringBuilder sb = new StringBuilder("\"");
+    for(char c : field.getSimpleName().toString().toCharArray()) {
+      if(c < 0x80) {
+        sb.append(c);
+      } else {
+        sb.append(String.format("\\u%04x", (int) c));
+      }
+    }
+    return sb.append('"').toString();
+  }
+
+  private static String arrayKind(ArrayType type) {
+    switch(type.getComponentType().getKind()) {
+      case BYTE:
+        return "Bytes";
+      case LONG:
+        return "LongArray";
+      case INT:
+        return "IntArray";
+      case DOUBLE:
+        return "DoubleArray";
+      case FLOAT:
+        return "FloatArray";
+      default:
+        return null;
+    }
+  }
+
+  private static String boxedName(TypeMirror type) {
+    if(type.getKind() != TypeKind.DECLARED) {
+      return null;
+    }
+    String name = ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString();
+    switch(name) {
+      case "java.lang.String":
+      case "java.lang.Boolean":
+      case "java.lang.Byte":
+      case "java.lang.Short":
+      case "java.lang.Character":
+      case "java.lang.Integer":
+      case "java.lang.Long":
+      case "java.lang.Float":
+      case "java.lang.Double":
+        return name.substring("java.lang.".length());
+      default:
+        return null;
+    }
+  }
+
+  private static TypeElement declaredElement(TypeMirror type) {
+    return type.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) type).asElement() : null;
+  }
+
+  private void packField(StringBuilder sb, TypeMirror type, String v) {
+    String call;
+    if(type.getKind().isPrimitive()) {
+      sb.append("    ").append(primitivePack(type.getKind(), v)).append(";\n");
+      return;
+    }
+    TypeElement element = declaredElement(type);
+    if(element != null && element.getAnnotation(LeonSerializable.class) != null) {
+      sb.append("    ").append(qualifiedCodec(element)).append(".INSTANCE.pack(packer, ").append(v).append(");\n");
+      return;
+    }
+    String boxed = boxedName(type);
+    if(type.getKind() == TypeKind.ARRAY) {
+      call = "packer.pack" + arrayKind((ArrayType) type) + "(" + v + ")";
+    } else if(boxed != null) {
+      call = primitivePack(boxedKind(boxed), v);
+    } else if(element != null && element.getKind() == ElementKind.ENUM) {
+      call = "packer.packString(" + v + ".name())";
+    } else {
+      sb.append("    packer.packObject(").append(v).append(");\n");
+      return;
+    }
+    sb.append("    if(").append(v).append(" == null) {\n");
+    sb.append("      packer.packNull();\n");
+    sb.append("    } else {\n");
+    sb.append("      ").append(call).append(";\n");
+    sb.append("    }\n");
+  }
+
+  private static TypeKind boxedKind(String boxed) {
+    switch(boxed) {
+      case "Boolean":
+        return TypeKind.BOOLEAN;
+      case "Byte":
+        return TypeKind.BYTE;
+      case "Short":
+        return TypeKind.SHORT;
+      case "Character":
+        return TypeKind.CHAR;
+      case "Integer":
+        return TypeKind.INT;
+      case "Long":
+        return TypeKind.LONG;
+      case "Float":
+        return TypeKind.FLOAT;
+      case "Double":
+        return TypeKind.DOUBLE;
+      default:
+        return TypeKind.DECLARED; // String
+    }
+  }
+
+  private static String primitivePack(TypeKind kind, String v) {
+    switch(kind) {
+      case BOOLEAN:
+        return "packer.packBoolean(" + v + ")";
+      case BYTE:
+      case SHORT:
+      case CHAR:
+      case INT:
+      case LONG:
+        return "packer.packInt(" + v + ")";
+      case FLOAT:
+        return "packer.packFloat(" + v + ")";
+      case DOUBLE:
+        return "packer.packDouble(" + v + ")";
+      case DECLARED:
+        return "packer.packString(" + v + ")";
+      default:
+        return null;
+    }
+  }
+
+  private static String primitiveUnpack(TypeKind kind) {
+    switch(kind) {
+      case BOOLEAN:
+        return "unpacker.unpackBooleanWithTag(tag)";
+      case BYTE:
+        return "(byte) unpacker.unpackIntWithTag(tag, Byte.MIN_VALUE, Byte.MAX_VALUE)";
+      case SHORT:
+        return "(short) unpacker.unpackIntWithTag(tag, Short.MIN_VALUE, Short.MAX_VALUE)";
+      case CHAR:
+        return "(char) unpacker.unpackIntWithTag(tag, Character.MIN_VALUE, Character.MAX_VALUE)";
+      case INT:
+        return "(int) unpacker.unpackIntWithTag(tag, Integer.MIN_VALUE, Integer.MAX_VALUE)";
+      case LONG:
+        return "unpacker.unpackIntWithTag(tag)";
+      case FLOAT:
+        return "unpacker.unpackFloatWithTag(tag)";
+      case DOUBLE:
+        return "unpacker.unpackDoubleWithTag(tag)";
+      case DECLARED:
+        return "unpacker.unpackStringWithTag(tag)";
+      default:
+        return null;
+    }
+  }
+
+  private String unpackExpr(TypeMirror type) {
+    if(type.getKind().isPrimitive()) {
+      return primitiveUnpack(type.getKind());
+    }
+    TypeElement element = declaredElement(type);
+    if(element != null && element.getAnnotation(LeonSerializable.class) != null) {
+      return qualifiedCodec(element) + ".INSTANCE.unpackWithTag(unpacker, tag)";
+    }
+    String boxed = boxedName(type);
+    String expr;
+    if(type.getKind() == TypeKind.ARRAY) {
+      String kind = arrayKind((ArrayType) type);
+      expr = kind.equals("Bytes") ? "unpacker.unpackBytesWithTag(tag)" : "unpacker.unpack" + kind + "WithTag(tag, null)";
+    } else if(boxed != null) {
+      expr = "(" + type + ") " + primitiveUnpack(boxedKind(boxed));
+    } else if(element != null && element.getKind() == ElementKind.ENUM) {
+      expr = element.getQualifiedName() + ".valueOf(unpacker.unpackStringWithTag(tag))";
+    } else if(type.toString().equals("java.lang.Object")) {
+      return "unpacker.unpackObjectWithTag(tag)";
+    } else {
+      return "(" + processingEnv.getTypeUtils().erasure(type) + ") unpacker.unpackObjectWithTag(tag)";
+    }
+    return "tag == leon.core.Tags.NULL ? null : " + expr;
+  }
+
+  private String qualifiedCodec(TypeElement element) {
+    String pkg = processingEnv.getElementUtils().getPackageOf(element).getQualifiedName().toString();
+    return pkg.isEmpty() ? codecName(element) : pkg + "." + codecName(element);
+  }
+}
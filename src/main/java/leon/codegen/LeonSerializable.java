@@ -0,0 +1,22 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.codegen;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/*
+  Generates a LeonCodec for the annotated class, see LeonProcessor. The
+  class needs a non-private no-argument constructor; its non-static,
+  non-transient fields are serialized and must not be private.
+*/
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface LeonSerializable {
+}
@@ -0,0 +1,54 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.core;
+
+/*
+  CRC-32C (Castagnoli), the checksum used by iSCSI, ext4 and Kafka. Java 8
+  has no java.util.zip.CRC32C, this is the table driven slicing-by-8
+  algorithm processing 8 bytes per step.
+*/
+final class Crc32c {
+  private Crc32c() {
+  }
+
+  private static final int POLY = 0x82F63B78; // reversed
+  private static final int[][] TABLE = new int[8][256];
+
+  static {
+    for(int n = 0; n < 256; n++) {
+      int c = n;
+      for(int k = 0; k < 8; k++) {
+        c = (c & 1) != 0 ? (c >>> 1) ^ POLY : c >>> 1;
+      }
+      TABLE[0][n] = c;
+    }
+    for(int n = 0; n < 256; n++) {
+      for(int k = 1; k < 8; k++) {
+        TABLE[k][n] = (TABLE[k - 1][n] >>> 8) ^ TABLE[0][TABLE[k - 1][n] & 0xFF];
+      }
+    }
+  }
+
+  static int compute(byte[] b, int off, int len) {
+    int[] t0 = TABLE[0], t1 = TABLE[1], t2 = TABLE[2], t3 = TABLE[3];
+    int[] t4 = TABLE[4], t5 = TABLE[5], t6 = TABLE[6], t7 = TABLE[7];
+    int crc = ~0;
+    while(len >= 8) {
+      int lo = crc ^ ((b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24);
+      int hi = (b[off + 4] & 0xFF) | (b[off + 5] & 0xFF) << 8 | (b[off + 6] & 0xFF) << 16 | (b[off + 7] & 0xFF) << 24;
+      crc = t7[lo & 0xFF] ^ t6[(lo >>> 8) & 0xFF] ^ t5[(lo >>> 16) & 0xFF] ^ t4[lo >>> 24]
+        ^ t3[hi & 0xFF] ^ t2[(hi >>> 8) & 0xFF] ^ t1[(hi >>> 16) & 0xFF] ^ t0[hi >>> 24];
+      off += 8;
+      len -= 8;
+    }
+    while(len > 0) {
+      crc = (crc >>> 8) ^ t0[(crc ^ b[off++]) & 0xFF];
+      len--;
+    }
+    return ~crc;
+  }
+}
@@ -0,0 +1,222 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/*
+  Reads a file written by LeonBlockWriter. The block index at the end of
+  the file gives the position and the first object of every block, so
+  seek() only decompresses the block holding the object and stream()
+  decodes the blocks in parallel. Blocks are read with positional reads,
+  the reader can be shared between threads.
+*/
+public final class LeonBlockReader implements Closeable {
+  private final FileChannel channel;
+  // numBlocks + 1 entries, the last one is the end of the blocks
+  private final long[] blockOffsets;
+  // numBlocks + 1 entries, the last one is the number of objects
+  private final long[] firstObjects;
+
+  public LeonBlockReader(String path) throws IOException {
+    channel = FileChannel.open(Paths.get(path));
+    try {
+      ByteBuffer header = read(0, LeonBlockWriter.HEADER_SIZE);
+      long size = channel.size();
+      if(!hasMagic(header, 0) || header.get(4) != 1 || size < LeonBlockWriter.HEADER_SIZE + LeonBlockWriter.TRAILER_SIZE) {
+        throw corrupted("Not a block compressed LEON file");
+      }
+      ByteBuffer trailer = read(size - LeonBlockWriter.TRAILER_SIZE, LeonBlockWriter.TRAILER_SIZE);
+      int numBlocks = trailer.getInt(0);
+      long indexOffset = size - LeonBlockWriter.TRAILER_SIZE - numBlocks * 16L;
+      if(!hasMagic(trailer, 12) || numBlocks < 0 || indexOffset < LeonBlockWriter.HEADER_SIZE) {
+        throw corrupted("Invalid block index");
+      }
+      blockOffsets = new long[numBlocks + 1];
+      firstObjects = new long[numBlocks + 1];
+      ByteBuffer index = read(indexOffset, numBlocks * 16);
+      for(int i = 0; i < numBlocks; i++) {
+        blockOffsets[i] = index.getLong();
+        firstObjects[i] = index.getLong();
+      }
+      blockOffsets[numBlocks] = indexOffset;
+      firstObjects[numBlocks] = trailer.getLong(4);
+      for(int i = 0; i < numBlocks; i++) {
+        if(blockOffsets[i] + 8 > blockOffsets[i + 1] || firstObjects[i] > firstObjects[i + 1]) {
+          throw corrupted("Invalid block index");
+        }
+      }
+    } catch(IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private static boolean hasMagic(ByteBuffer buf, int offset) {
+    for(int i = 0; i < LeonBlockWriter.MAGIC.length; i++) {
+      if(buf.get(offset + i) != LeonBlockWriter.MAGIC[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static LeonException corrupted(String msg) {
+    return new LeonException(msg, LeonException.Reason.UnableToUnpackObj);
+  }
+
+  private ByteBuffer read(long position, int size) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    while(buf.hasRemaining()) {
+      if(channel.read(buf, position + buf.position()) < 0) {
+        throw LeonInput.endOfInput();
+      }
+    }
+    buf.flip();
+    return buf;
+  }
+
+  public int blockCount() {
+    return blockOffsets.length - 1;
+  }
+
+  // Number of top-level objects
+  public long size() {
+    return firstObjects[firstObjects.length - 1];
+  }
+
+  // The decompressed content of block i
+  public byte[] block(int i) throws IOException {
+    if(i < 0 || i >= blockCount()) {
+      throw new IndexOutOfBoundsException("Block " + i + " of " + blockCount());
+    }
+    ByteBuffer header = read(blockOffsets[i], 8);
+    int rawSize = header.getInt();
+    int storedSize = header.getInt();
+    if(rawSize < 0 || storedSize < 0 || storedSize > rawSize || blockOffsets[i] + 8 + storedSize > blockOffsets[i + 1]) {
+      throw corrupted("Invalid block header");
+    }
+    byte[] stored = read(blockOffsets[i] + 8, storedSize).array();
+    if(storedSize == rawSize) {
+      return stored;
+    }
+    byte[] raw = new byte[rawSize];
+    Lz4.decompress(stored, 0, storedSize, raw, 0, rawSize);
+    return raw;
+  }
+
+  public List<Object> readBlock(int i) throws IOException {
+    long count = firstObjects[i + 1] - firstObjects[i];
+    LeonUnpacker unpacker = new LeonUnpacker(block(i));
+    List<Object> objects = new ArrayList<>((int) Math.min(count, 1 << 16));
+    for(long j = 0; j < count; j++) {
+      objects.add(unpacker.unpackObject());
+    }
+    return objects;
+  }
+
+  // An unpacker over the objects of all blocks, starting from object n
+  public LeonUnpacker seek(long n) throws IOException {
+    if(n < 0 || n > size()) {
+      throw new IndexOutOfBoundsException("Object " + n + " of " + size());
+    }
+    int i = Arrays.binarySearch(firstObjects, n);
+    if(i < 0) {
+      i = -i - 2;
+    }
+    // Empty blocks cannot be written, only the end of the objects repeats
+    i = Math.min(i, Math.max(blockCount() - 1, 0));
+    LeonUnpacker unpacker = new LeonUnpacker(new LeonInput.Stream(new BlockStream(i)));
+    for(long j = firstObjects[i]; j < n; j++) {
+      unpacker.skipObject(unpacker.nextTag());
+    }
+    return unpacker;
+  }
+
+  public LeonUnpacker unpacker() throws IOException {
+    return seek(0);
+  }
+
+  // All the objects in order, blocks are decoded in parallel
+  public Stream<Object> stream() {
+    return IntStream.range(0, blockCount()).parallel().mapToObj(i -> {
+      try {
+        return readBlock(i);
+      } catch(IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }).flatMap(List::stream);
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  // The decompressed blocks from a given one to the last, back to back
+  private final class BlockStream extends InputStream {
+    private int next;
+    private byte[] cur = new byte[0];
+    private int pos;
+
+    BlockStream(int first) {
+      next = first;
+    }
+
+    private boolean fill() throws IOException {
+      while(pos == cur.length) {
+        if(next >= blockCount()) {
+          return false;
+        }
+        cur = block(next++);
+        pos = 0;
+      }
+      return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return fill() ? cur[pos++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if(len == 0) {
+        return 0;
+      }
+      if(!fill()) {
+        return -1;
+      }
+      int n = Math.min(len, cur.length - pos);
+      System.arraycopy(cur, pos, b, off, n);
+      pos += n;
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      if(n <= 0 || !fill()) {
+        return 0;
+      }
+      int skipped = (int) Math.min(n, cur.length - pos);
+      pos += skipped;
+      return skipped;
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/*
+  Writes a block compressed LEON file. Top-level objects are packed into a
+  buffer that is compressed with LZ4 and written as one block once it holds
+  at least blockSize bytes, so blocks always end on an object boundary and
+  can be decoded independently. The packer is reset after each block, a key
+  dictionary enabled on it restarts with every block.
+
+  file = magic version {block} index .
+  magic = "LEOZ" .
+  version = 00000001 00000000 00000000 .
+  block = rawSize storedSize "storedSize bytes, LZ4 compressed if storedSize < rawSize" .
+  index = {blockOffset firstObject} numBlocks numObjects magic .
+
+  Sizes and numBlocks are 32 bits little endian integers, offsets and
+  object counts 64 bits little endian integers.
+*/
+public final class LeonBlockWriter implements Closeable {
+  public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+  static final byte[] MAGIC = {'L', 'E', 'O', 'Z'};
+  static final int HEADER_SIZE = 7;
+  static final int TRAILER_SIZE = 16;
+
+  private final OutputStream out;
+  private final int blockSize;
+  private final LeonPacker packer;
+  private final int[] table = new int[1 << Lz4.HASH_LOG];
+  private final ByteBuffer scratch = ByteBuffer.allocate(TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+  private byte[] compressed = new byte[0];
+  private long offset;
+  private long numObjects;
+  private long blockFirstObject;
+  // blockOffset and firstObject of each block written so far
+  private long[] blocks = new long[64];
+  private int numBlocks;
+
+  public LeonBlockWriter(String path) throws IOException {
+    this(new FileOutputStream(new File(path)), DEFAULT_BLOCK_SIZE);
+  }
+
+  public LeonBlockWriter(OutputStream out, int blockSize) throws IOException {
+    if(blockSize <= 0) {
+      throw new IllegalArgumentException("Block size must be positive");
+    }
+    this.out = out;
+    this.blockSize = blockSize;
+    this.packer = new LeonPacker(Math.min(blockSize, 1 << 20));
+    out.write(MAGIC);
+    out.write(new byte[]{1, 0, 0});
+    offset = HEADER_SIZE;
+  }
+
+  // Packer of the current block, call endObject() after packing each top-level object
+  public LeonPacker packer() {
+    return packer;
+  }
+
+  public LeonBlockWriter endObject() throws IOException {
+    numObjects++;
+    if(packer.size() >= blockSize) {
+      writeBlock();
+    }
+    return this;
+  }
+
+  public LeonBlockWriter packObject(Object obj) throws IOException {
+    packer.packObject(obj);
+    return endObject();
+  }
+
+  private void writeBlock() throws IOException {
+    ByteBuffer raw = packer.asByteBuffer();
+    int rawSize = raw.remaining();
+    int max = Lz4.maxCompressedLength(rawSize);
+    if(compressed.length < max) {
+      compressed = new byte[max];
+    }
+    int storedSize = Lz4.compress(raw.array(), 0, rawSize, compressed, 0, table);
+    boolean stored = storedSize >= rawSize;
+    if(stored) {
+      storedSize = rawSize;
+    }
+    if(numBlocks * 2 == blocks.length) {
+      blocks = Arrays.copyOf(blocks, blocks.length * 2);
+    }
+    blocks[numBlocks * 2] = offset;
+    blocks[numBlocks * 2 + 1] = blockFirstObject;
+    numBlocks++;
+    scratch.clear();
+    scratch.putInt(rawSize).putInt(storedSize);
+    out.write(scratch.array(), 0, 8);
+    out.write(stored ? raw.array() : compressed, 0, storedSize);
+    offset += 8 + storedSize;
+    blockFirstObject = numObjects;
+    packer.reset();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      if(packer.size() > 0) {
+        writeBlock();
+      }
+      ByteBuffer index = ByteBuffer.allocate(numBlocks * 16).order(ByteOrder.LITTLE_ENDIAN);
+      for(int i = 0; i < numBlocks * 2; i++) {
+        index.putLong(blocks[i]);
+      }
+      out.write(index.array());
+      scratch.clear();
+      scratch.putInt(numBlocks).putLong(numObjects).put(MAGIC);
+      out.write(scratch.array(), 0, TRAILER_SIZE);
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.core;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/*
+  Pool of heap or direct buffers for decoded bytes values. Capacities are
+  rounded up to a power of two size class, from MIN_SIZE to maxSize, and
+  each class keeps at most maxPerClass free buffers. Larger requests are
+  allocated and dropped on release like any buffer the pool does not own.
+  Thread-safe, one pool can be shared by many unpackers.
+*/
+public final class LeonBufferPool {
+  public static final int MIN_SIZE = 256;
+  private static final int MIN_SHIFT = 8;
+
+  private final boolean direct;
+  private final int maxSize;
+  private final int maxPerClass;
+  private final ArrayDeque<ByteBuffer>[] free;
+  private long hits;
+  private long misses;
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public LeonBufferPool(boolean direct, int maxSize, int maxPerClass) {
+    if(maxSize < MIN_SIZE || maxSize > (1 << 30) || maxPerClass < 0) {
+      throw new IllegalArgumentException("Invalid maximum size " + maxSize + " or buffers per class " + maxPerClass);
+    }
+    int n = Integer.highestOneBit(maxSize);
+    if(n < maxSize) {
+      n = n << 1;
+    }
+    this.direct = direct;
+    this.maxSize = n;
+    this.maxPerClass = maxPerClass;
+    this.free = new ArrayDeque[sizeClass(n) + 1];
+    for(int i = 0; i < free.length; i++) {
+      free[i] = new ArrayDeque<>();
+    }
+  }
+
+  // Index of the smallest size class holding size bytes
+  private static int sizeClass(int size) {
+    return size <= MIN_SIZE ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+  }
+
+  // A cleared buffer with limit size and capacity at least size
+  public ByteBuffer acquire(int size) {
+    if(size < 0) {
+      throw new IllegalArgumentException("Negative size " + size);
+    }
+    if(size > maxSize) {
+      synchronized(this) {
+        misses++;
+      }
+      return allocate(size);
+    }
+    int i = sizeClass(size);
+    ByteBuffer buf;
+    synchronized(this) {
+      buf = free[i].pollFirst();
+      if(buf == null) {
+        misses++;
+      } else {
+        hits++;
+      }
+    }
+    if(buf == null) {
+      buf = allocate(MIN_SIZE << i);
+    }
+    buf.clear().limit(size);
+    return buf;
+  }
+
+  private ByteBuffer allocate(int capacity) {
+    return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+  }
+
+  // Gives back a buffer from acquire(), it must not be used afterwards
+  public void release(ByteBuffer buf) {
+    int capacity = buf.capacity();
+    if(buf.isDirect() != direct || buf.isReadOnly() || capacity > maxSize || capacity < MIN_SIZE
+      || Integer.bitCount(capacity) != 1 || (!direct && buf.arrayOffset() != 0)) {
+      return;
+    }
+    ArrayDeque<ByteBuffer> queue = free[sizeClass(capacity)];
+    synchronized(this) {
+      if(queue.size() < maxPerClass) {
+        queue.addFirst(buf);
+      }
+    }
+  }
+
+  public boolean isDirect() {
+    return direct;
+  }
+
+  // Acquired buffers that came from the pool
+  public synchronized long hits() {
+    return hits;
+  }
+
+  // Acquired buffers that had to be allocated
+  public synchronized long misses() {
+    return misses;
+  }
+
+  public synchronized void clear() {
+    for(ArrayDeque<ByteBuffer> queue : free) {
+      queue.clear();
+    }
+    hits = 0;
+    misses = 0;
+  }
+}
@@ -0,0 +1,101 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+  Reads the frames written by LeonFrameWriter. Payloads are returned as
+  byte arrays owned by the caller, ready to be decoded on another thread
+  with new LeonUnpacker(payload), or skipped by their size without looking
+  at them.
+*/
+public final class LeonFrameReader implements Closeable {
+  private static final int MAX_FRAME_SIZE = Integer.MAX_VALUE - 8;
+
+  private final LeonInput in;
+  private final LeonUnpacker unpacker;
+  private final boolean checksum;
+
+  public LeonFrameReader(InputStream in, boolean checksum) {
+    this(new LeonInput.Stream(in), checksum);
+  }
+
+  public LeonFrameReader(ByteBuffer buffer, boolean checksum) {
+    this(buffer.hasArray()
+      ? new LeonInput.Array(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining())
+      : new LeonInput.Buffer(buffer), checksum);
+  }
+
+  private LeonFrameReader(LeonInput in, boolean checksum) {
+    this.in = in;
+    this.unpacker = new LeonUnpacker(in);
+    this.checksum = checksum;
+  }
+
+  // Bytes consumed so far, the offset of the next frame
+  public long position() {
+    return in.position();
+  }
+
+  // Size of the next payload or -1 at the end of the input
+  private long nextSize() throws IOException {
+    int tag = in.read();
+    if(tag == -1) {
+      return -1;
+    }
+    long size = unpacker.unpackIntWithTag(tag);
+    if(size < 0 || size > MAX_FRAME_SIZE) {
+      throw new LeonException("Invalid frame size " + size, LeonException.Reason.UnableToUnpackObj);
+    }
+    return size;
+  }
+
+  // The payload of the next frame or null at the end of the input
+  public byte[] nextFrame() throws IOException {
+    long size = nextSize();
+    if(size == -1) {
+      return null;
+    }
+    byte[] payload = new byte[(int) size];
+    in.readFully(payload, 0, payload.length);
+    if(checksum && in.readLE32Int() != Crc32c.compute(payload, 0, payload.length)) {
+      throw new LeonException("Frame checksum mismatch", LeonException.Reason.UnableToUnpackObj);
+    }
+    return payload;
+  }
+
+  // Up to max payloads, fewer only at the end of the input
+  public List<byte[]> nextFrames(int max) throws IOException {
+    List<byte[]> frames = new ArrayList<>(Math.min(max, 1024));
+    byte[] payload;
+    while(frames.size() < max && (payload = nextFrame()) != null) {
+      frames.add(payload);
+    }
+    return frames;
+  }
+
+  // Skips the next frame without reading its payload, false at the end of the input
+  public boolean skipFrame() throws IOException {
+    long size = nextSize();
+    if(size == -1) {
+      return false;
+    }
+    in.skip(checksum ? size + 4 : size);
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
@@ -0,0 +1,80 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.core;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/*
+  Writes length prefixed records, so that readers can skip them or hand
+  them over without parsing. A record is usually one or more LEON objects
+  packed with packer() and closed with endFrame().
+
+  frame = size "size bytes of payload" [checksum] .
+  size = integer .
+  checksum = "32 bits little endian CRC-32C of the payload" .
+
+  Whether frames have a checksum is a property of the stream, writer and
+  reader have to agree on it.
+*/
+public final class LeonFrameWriter implements Closeable, Flushable {
+  private final LeonPacker sink;
+  private final boolean checksum;
+  private final LeonPacker packer = new LeonPacker();
+  private final byte[] crc = new byte[4];
+
+  public LeonFrameWriter(OutputStream out, boolean checksum) {
+    this.sink = new LeonPacker(out, LeonPacker.DEFAULT_BUFFER_SIZE);
+    this.checksum = checksum;
+  }
+
+  // Packer of the payload of the current frame
+  public LeonPacker packer() {
+    return packer;
+  }
+
+  // Writes what was packed since the last frame as one frame
+  public LeonFrameWriter endFrame() throws IOException {
+    ByteBuffer payload = packer.asByteBuffer();
+    writeFrame(payload.array(), 0, payload.remaining());
+    packer.reset();
+    return this;
+  }
+
+  public LeonFrameWriter writeObject(Object obj) throws IOException {
+    packer.packObject(obj);
+    return endFrame();
+  }
+
+  // Writes an already encoded payload as one frame
+  public LeonFrameWriter writeFrame(byte[] payload, int offset, int length) throws IOException {
+    sink.packInt(length);
+    sink.packRawBytes(payload, offset, length);
+    if(checksum) {
+      int x = Crc32c.compute(payload, offset, length);
+      crc[0] = (byte) x;
+      crc[1] = (byte) (x >>> 8);
+      crc[2] = (byte) (x >>> 16);
+      crc[3] = (byte) (x >>> 24);
+      sink.packRawBytes(crc);
+    }
+    return this;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    sink.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    sink.close();
+  }
+}
@@ -0,0 +1,71 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.core;
+
+import java.io.IOException;
+
+/*
+  Offsets, from the start of the file, of the top-level objects of a LEON
+  file. The index is stored next to the file it describes in a sidecar LEON
+  file holding a single int64 typed array, so the LEON file itself is left
+  unchanged.
+*/
+public final class LeonIndex {
+  private final long[] offsets;
+
+  LeonIndex(long[] offsets) {
+    this.offsets = offsets;
+  }
+
+  public static String sidecarPath(String path) {
+    return path + ".idx";
+  }
+
+  public static LeonIndex load(String path) throws IOException {
+    try(LeonUnpacker unpkr = new LeonUnpacker(sidecarPath(path))) {
+      return new LeonIndex(unpkr.unpackLongArray(null));
+    }
+  }
+
+  public void save(String path) throws IOException {
+    try(LeonPacker pkr = new LeonPacker(sidecarPath(path))) {
+      pkr.packTypedArray(offsets);
+    }
+  }
+
+  /*
+    Checks that the offsets can be the objects of a file whose first object
+    is at first and which ends at end: a sidecar that does not belong to the
+    current version of the file would make readers decode from the middle
+    of unrelated values.
+  */
+  LeonIndex check(long first, long end) {
+    boolean valid = offsets.length == 0 ? first == end : offsets[0] == first;
+    for(int i = 0; valid && i < offsets.length; i++) {
+      valid = offsets[i] < end && (i == 0 || offsets[i] > offsets[i - 1]);
+    }
+    if(!valid) {
+      throw new LeonException("Index does not match the file, it may be stale", LeonException.Reason.UnableToUnpackObj);
+    }
+    return this;
+  }
+
+  long[] offsets() {
+    return offsets;
+  }
+
+  public long size() {
+    return offsets.length;
+  }
+
+  public long offset(long n) {
+    if(n < 0 || n >= offsets.length) {
+      throw new IndexOutOfBoundsException("Object " + n + " not in index of size " + offsets.length);
+    }
+    return offsets[(int) n];
+  }
+}
@@ -0,0 +1,657 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import static leon.core.LeonException.Reason.UnableToUnpackObj;
+
+/*
+  Source of bytes for LeonUnpacker. read() returns -1 at the end of input,
+  every other method throws a LeonException if the input ends prematurely.
+  Positions are relative to the first byte of the input.
+*/
+abstract class LeonInput implements Closeable {
+
+  abstract int read() throws IOException;
+
+  abstract void readFully(byte[] bytes, int offset, int length) throws IOException;
+
+  abstract void skip(long size) throws IOException;
+
+  abstract long position();
+
+  abstract void position(long newPosition) throws IOException;
+
+  int readLE32Int() throws IOException {
+    int x0, x1, x2, x3;
+    x0 = read();
+    x1 = read();
+    x2 = read();
+    x3 = read();
+    if(x0 == -1 || x1 == -1 || x2 == -1 || x3 == -1) {
+      throw endOfInput();
+    }
+    return (((((x3 << 8) + x2) << 8) + x1) << 8) + x0;
+  }
+
+  long readLE64Int() throws IOException {
+    long bits_low = readLE32Int() & 0x00000000FFFFFFFFL;
+    long bits_high = readLE32Int();
+    return (bits_high << 32) | bits_low;
+  }
+
+  /*
+    The value of an integer whose first byte, tag, has already been read
+    and is at least 0x40: 7 bits groups while the byte is at least 0x40,
+    then a sign extended 6 bits group.
+  */
+  long readIntTail(int tag) throws IOException {
+    long y = 0;
+    int n = 0;
+    int b = tag;
+    while(b >= 0x40) {
+      y += (long) (b - 0x80) << n;
+      n += 7;
+      b = read();
+      if(b == -1) {
+        throw endOfInput();
+      }
+    }
+    // sign extend the last 6 bits payload, where the 6th bit is the sign
+    return y + ((long) ((b & 0x1F) - (b & 0x20)) << n);
+  }
+
+  private byte[] sliceBuf;
+
+  // The next size bytes as a little endian buffer, valid until the next read
+  ByteBuffer readSlice(int size) throws IOException {
+    if(sliceBuf == null || sliceBuf.length < size) {
+      sliceBuf = new byte[Math.max(size, 64)];
+    }
+    readFully(sliceBuf, 0, size);
+    return ByteBuffer.wrap(sliceBuf, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  // Drops the scratch buffer if it grew past maxSize bytes
+  void trimBuffers(int maxSize) {
+    if(sliceBuf != null && sliceBuf.length > maxSize) {
+      sliceBuf = null;
+    }
+  }
+
+  // Reads length bytes into dst from its position, in slices for direct buffers
+  void readFully(ByteBuffer dst, int length) throws IOException {
+    if(dst.remaining() < length) {
+      throw new BufferOverflowException();
+    }
+    if(dst.hasArray()) {
+      readFully(dst.array(), dst.arrayOffset() + dst.position(), length);
+      dst.position(dst.position() + length);
+      return;
+    }
+    while(length > 0) {
+      int n = Math.min(length, SLICE_CHUNK);
+      dst.put(readSlice(n));
+      length -= n;
+    }
+  }
+
+  private static final int SLICE_CHUNK = 8192;
+
+  @Override
+  public void close() throws IOException {
+  }
+
+  static LeonException endOfInput() {
+    return new LeonException("Unexpected end of input reached", UnableToUnpackObj);
+  }
+
+  static final class Stream extends LeonInput {
+    private static final int SKIP_BUFFER_SIZE = 4096;
+
+    private InputStream in;
+    private long count;
+    private byte[] skipBuf;
+
+    Stream(InputStream in) {
+      this.in = in;
+    }
+
+    // Switches to new input, the position restarts from 0
+    void reset(InputStream in) {
+      this.in = in;
+      this.count = 0;
+    }
+
+    @Override
+    int read() throws IOException {
+      int b = in.read();
+      if(b != -1) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    void readFully(byte[] bytes, int offset, int numToRead) throws IOException {
+      int numRead = 0;
+      while(numRead != -1 && numToRead > 0) {
+        numRead = in.read(bytes, offset, numToRead);
+        if(numRead > 0) {
+          numToRead -= numRead;
+          offset += numRead;
+          count += numRead;
+        }
+      }
+
+      if(numRead == -1) {
+        throw endOfInput();
+      }
+    }
+
+    @Override
+    void skip(long totSize) throws IOException {
+      if(totSize <= 0) {
+        return;
+      }
+
+      if(skipBuf == null) {
+        skipBuf = new byte[SKIP_BUFFER_SIZE];
+      }
+      while(totSize > 0) {
+        int numToRead = (int) Math.min(SKIP_BUFFER_SIZE, totSize);
+        readFully(skipBuf, 0, numToRead);
+        totSize -= numToRead;
+      }
+    }
+
+    @Override
+    long position() {
+      return count;
+    }
+
+    @Override
+    void position(long newPosition) {
+      throw new LeonException("Cannot change the position of an input stream, use a file, a byte array or a buffer", UnableToUnpackObj);
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  static final class Array extends LeonInput {
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private byte[] buf;
+    private ByteBuffer words;
+    private int start;
+    private int limit;
+    private int pos;
+
+    Array(byte[] buf, int offset, int length) {
+      reset(buf, offset, length);
+    }
+
+    // Switches to new input, the position restarts from 0
+    void reset(byte[] buf, int offset, int length) {
+      if(offset < 0 || length < 0 || offset > buf.length - length) {
+        throw new IndexOutOfBoundsException();
+      }
+      if(this.buf != buf) {
+        words = null;
+      }
+      this.buf = buf;
+      this.start = offset;
+      this.limit = offset + length;
+      this.pos = offset;
+    }
+
+    /*
+      Loads the 8 bytes after the tag as one little endian long and finds
+      the last byte of the integer as the first one with the high bit clear.
+      The 7 bits groups before it are packed together with shifts and masks
+      instead of a loop. Integers shorter than 4 bytes, where the loop is
+      as fast, longer than 9 bytes, malformed ones and those near the end
+      of the input take the byte loop.
+    */
+    @Override
+    long readIntTail(int tag) throws IOException {
+      int p = pos;
+      if(tag < 0x80 || limit - p < 8 || (buf[p] & buf[p + 1]) >= 0) {
+        return super.readIntTail(tag);
+      }
+      if(words == null) {
+        words = ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+      }
+      long w = words.getLong(p);
+      long stop = ~w & HIGH_BITS;
+      if(stop == 0) {
+        return super.readIntTail(tag);
+      }
+      int bits = Long.numberOfTrailingZeros(stop) - 7; // 8 * index of the last byte
+      int last = (int) (w >>> bits) & 0xFF;
+      if(last >= 0x40) {
+        return super.readIntTail(tag);
+      }
+      long v = w & ((1L << bits) - 1) & 0x7F7F7F7F7F7F7F7FL;
+      v = (v & 0x007F007F007F007FL) | ((v & 0x7F007F007F007F00L) >>> 1);
+      v = (v & 0x00003FFF00003FFFL) | ((v & 0x3FFF00003FFF0000L) >>> 2);
+      v = (v & 0x000000000FFFFFFFL) | ((v & 0x0FFFFFFF00000000L) >>> 4);
+      int groups = (bits >>> 3) + 1; // 7 bits groups including the tag
+      pos = p + groups;
+      return (tag & 0x7F) | (v << 7) | ((long) ((last & 0x1F) - (last & 0x20)) << (7 * groups));
+    }
+
+    @Override
+    int read() {
+      if(pos < limit) {
+        return buf[pos++] & 0xFF;
+      }
+      return -1;
+    }
+
+    @Override
+    void readFully(byte[] bytes, int offset, int length) {
+      if(limit - pos < length) {
+        throw endOfInput();
+      }
+      System.arraycopy(buf, pos, bytes, offset, length);
+      pos += length;
+    }
+
+    @Override
+    void skip(long size) {
+      if(size <= 0) {
+        return;
+      }
+      if(limit - pos < size) {
+        throw endOfInput();
+      }
+      pos += (int) size;
+    }
+
+    @Override
+    int readLE32Int() {
+      if(limit - pos < 4) {
+        throw endOfInput();
+      }
+      byte[] b = buf;
+      int p = pos;
+      pos = p + 4;
+      return (b[p] & 0xFF) | (b[p + 1] & 0xFF) << 8 | (b[p + 2] & 0xFF) << 16 | (b[p + 3] & 0xFF) << 24;
+    }
+
+    @Override
+    long readLE64Int() {
+      if(limit - pos < 8) {
+        throw endOfInput();
+      }
+      byte[] b = buf;
+      int p = pos;
+      pos = p + 8;
+      return (b[p] & 0xFFL) | (b[p + 1] & 0xFFL) << 8 | (b[p + 2] & 0xFFL) << 16 | (b[p + 3] & 0xFFL) << 24
+        | (b[p + 4] & 0xFFL) << 32 | (b[p + 5] & 0xFFL) << 40 | (b[p + 6] & 0xFFL) << 48 | (b[p + 7] & 0xFFL) << 56;
+    }
+
+    @Override
+    ByteBuffer readSlice(int size) {
+      if(limit - pos < size) {
+        throw endOfInput();
+      }
+      ByteBuffer slice = ByteBuffer.wrap(buf, pos, size).slice().order(ByteOrder.LITTLE_ENDIAN);
+      pos += size;
+      return slice;
+    }
+
+    @Override
+    long position() {
+      return pos - start;
+    }
+
+    @Override
+    void position(long newPosition) {
+      if(newPosition < 0 || newPosition > limit - start) {
+        throw new IllegalArgumentException("Position out of bounds: " + newPosition);
+      }
+      pos = start + (int) newPosition;
+    }
+  }
+
+  static final class Buffer extends LeonInput {
+    private final ByteBuffer buf;
+    private final int start;
+
+    Buffer(ByteBuffer buffer) {
+      this.buf = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+      this.start = buffer.position();
+    }
+
+    @Override
+    int read() {
+      if(buf.hasRemaining()) {
+        return buf.get() & 0xFF;
+      }
+      return -1;
+    }
+
+    @Override
+    void readFully(byte[] bytes, int offset, int length) {
+      if(buf.remaining() < length) {
+        throw endOfInput();
+      }
+      buf.get(bytes, offset, length);
+    }
+
+    @Override
+    void skip(long size) {
+      if(size <= 0) {
+        return;
+      }
+      if(buf.remaining() < size) {
+        throw endOfInput();
+      }
+      buf.position(buf.position() + (int) size);
+    }
+
+    @Override
+    int readLE32Int() {
+      if(buf.remaining() < 4) {
+        throw endOfInput();
+      }
+      return buf.getInt();
+    }
+
+    @Override
+    long readLE64Int() {
+      if(buf.remaining() < 8) {
+        throw endOfInput();
+      }
+      return buf.getLong();
+    }
+
+    @Override
+    ByteBuffer readSlice(int size) {
+      if(buf.remaining() < size) {
+        throw endOfInput();
+      }
+      ByteBuffer slice = buf.slice();
+      slice.limit(size);
+      buf.position(buf.position() + size);
+      return slice.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    long position() {
+      return buf.position() - start;
+    }
+
+    @Override
+    void position(long newPosition) {
+      if(newPosition < 0 || newPosition > buf.limit() - start) {
+        throw new IllegalArgumentException("Position out of bounds: " + newPosition);
+      }
+      buf.position(start + (int) newPosition);
+    }
+  }
+
+  /*
+    Read-only memory mapping of a file. A single MappedByteBuffer is limited
+    to 2 GB, so the file is mapped in chunks of chunkSize bytes and values
+    that straddle two chunks are read byte by byte.
+  */
+  static final class Mapped extends LeonInput {
+    static final int DEFAULT_CHUNK_SIZE = 1 << 30;
+
+    private final FileChannel channel;
+    private final ByteBuffer[] chunks;
+    private final int chunkSize;
+    private final long size;
+    private int index;
+    private ByteBuffer cur;
+
+    Mapped(FileChannel channel, int chunkSize) throws IOException {
+      this.channel = channel;
+      this.chunkSize = chunkSize;
+      this.size = channel.size();
+      int numChunks = (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+      chunks = new ByteBuffer[numChunks];
+      for(int i = 0; i < numChunks; i++) {
+        long offset = (long) i * chunkSize;
+        long length = Math.min(chunkSize, size - offset);
+        chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+      }
+      cur = chunks[0];
+    }
+
+    private Mapped(Mapped other) {
+      this.channel = null;
+      this.chunkSize = other.chunkSize;
+      this.size = other.size;
+      this.chunks = new ByteBuffer[other.chunks.length];
+      for(int i = 0; i < chunks.length; i++) {
+        chunks[i] = other.chunks[i].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        chunks[i].position(0);
+      }
+      cur = chunks[0];
+    }
+
+    // An independent cursor over the same mapping, the duplicate does not
+    // own the file channel.
+    Mapped duplicate() {
+      return new Mapped(this);
+    }
+
+    long size() {
+      return size;
+    }
+
+    private boolean nextChunk() {
+      if(index + 1 < chunks.length) {
+        index++;
+        cur = chunks[index];
+        cur.position(0);
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    int read() {
+      if(cur.hasRemaining() || nextChunk()) {
+        return cur.get() & 0xFF;
+      }
+      return -1;
+    }
+
+    @Override
+    void readFully(byte[] bytes, int offset, int length) {
+      if(size - position() < length) {
+        throw endOfInput();
+      }
+      while(length > 0) {
+        if(!cur.hasRemaining()) {
+          nextChunk();
+        }
+        int n = Math.min(length, cur.remaining());
+        cur.get(bytes, offset, n);
+        offset += n;
+        length -= n;
+      }
+    }
+
+    @Override
+    void skip(long n) {
+      if(n <= 0) {
+        return;
+      }
+      long pos = position();
+      if(size - pos < n) {
+        throw endOfInput();
+      }
+      position(pos + n);
+    }
+
+    @Override
+    int readLE32Int() throws IOException {
+      if(cur.remaining() >= 4) {
+        return cur.getInt();
+      }
+      return super.readLE32Int();
+    }
+
+    @Override
+    long readLE64Int() throws IOException {
+      if(cur.remaining() >= 8) {
+        return cur.getLong();
+      }
+      return super.readLE64Int();
+    }
+
+    @Override
+    ByteBuffer readSlice(int size) throws IOException {
+      if(cur.remaining() < size) {
+        return super.readSlice(size);
+      }
+      ByteBuffer slice = cur.slice();
+      slice.limit(size);
+      cur.position(cur.position() + size);
+      return slice.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    long position() {
+      return (long) index * chunkSize + cur.position();
+    }
+
+    @Override
+    void position(long newPosition) {
+      if(newPosition < 0 || newPosition > size) {
+        throw new IllegalArgumentException("Position out of bounds: " + newPosition);
+      }
+      int i = (int) Math.min(newPosition / chunkSize, chunks.length - 1);
+      index = i;
+      cur = chunks[i];
+      cur.position((int) (newPosition - (long) i * chunkSize));
+    }
+
+    @Override
+    public void close() throws IOException {
+      if(channel != null) {
+        channel.close();
+      }
+    }
+  }
+
+  // Buffered positional reads from a file channel
+  static final class Channel extends LeonInput {
+    private final FileChannel channel;
+    private final byte[] buf = new byte[1 << 16];
+    private final ByteBuffer bb = ByteBuffer.wrap(buf);
+    private long bufStart;
+    private int pos;
+    private int limit;
+
+    Channel(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    private boolean fill() throws IOException {
+      bufStart += limit;
+      pos = 0;
+      limit = 0;
+      bb.clear();
+      int n = channel.read(bb, bufStart);
+      if(n <= 0) {
+        return false;
+      }
+      limit = n;
+      return true;
+    }
+
+    @Override
+    int read() throws IOException {
+      if(pos == limit && !fill()) {
+        return -1;
+      }
+      return buf[pos++] & 0xFF;
+    }
+
+    @Override
+    void readFully(byte[] bytes, int offset, int length) throws IOException {
+      while(length > 0) {
+        if(pos == limit && !fill()) {
+          throw endOfInput();
+        }
+        int n = Math.min(length, limit - pos);
+        System.arraycopy(buf, pos, bytes, offset, n);
+        pos += n;
+        offset += n;
+        length -= n;
+      }
+    }
+
+    @Override
+    void skip(long size) throws IOException {
+      if(size <= 0) {
+        return;
+      }
+      if(size <= limit - pos) {
+        pos += (int) size;
+        return;
+      }
+      long newPosition = position() + size;
+      if(newPosition > channel.size()) {
+        throw endOfInput();
+      }
+      position(newPosition);
+    }
+
+    @Override
+    int readLE32Int() throws IOException {
+      if(limit - pos < 4) {
+        return super.readLE32Int();
+      }
+      byte[] b = buf;
+      int p = pos;
+      pos = p + 4;
+      return (b[p] & 0xFF) | (b[p + 1] & 0xFF) << 8 | (b[p + 2] & 0xFF) << 16 | (b[p + 3] & 0xFF) << 24;
+    }
+
+    @Override
+    long position() {
+      return bufStart + pos;
+    }
+
+    @Override
+    void position(long newPosition) {
+      if(newPosition < 0) {
+        throw new IllegalArgumentException("Position out of bounds: " + newPosition);
+      }
+      if(newPosition >= bufStart && newPosition <= bufStart + limit) {
+        pos = (int) (newPosition - bufStart);
+      } else {
+        bufStart = newPosition;
+        pos = 0;
+        limit = 0;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+}
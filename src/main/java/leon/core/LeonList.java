@@ -0,0 +1,77 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.core;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/*
+  Read-only list view, see LeonValue. Offsets of the elements are found by
+  skipping from the last known one and are kept, together with the decoded
+  elements, only up to the highest index accessed.
+*/
+public final class LeonList extends AbstractList<Object> implements RandomAccess {
+  private static final Object UNDECODED = new Object();
+
+  private final LeonUnpacker unpacker;
+  private final int size;
+  private long[] offsets;
+  private Object[] values;
+  private int known;
+
+  LeonList(LeonUnpacker unpacker, int size, long start) {
+    this.unpacker = unpacker;
+    this.size = size;
+    this.offsets = new long[Math.min(size, 8) + 1];
+    this.values = new Object[Math.min(size, 8)];
+    Arrays.fill(values, UNDECODED);
+    offsets[0] = start;
+    known = 1;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Object get(int index) {
+    if(index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    try {
+      ensureOffset(index);
+      Object value = values[index];
+      if(value == UNDECODED) {
+        unpacker.position(offsets[index]);
+        value = LeonValue.read(unpacker);
+        values[index] = value;
+      }
+      return value;
+    } catch(IOException e) {
+      throw LeonValue.ioFailure(e);
+    }
+  }
+
+  private void ensureOffset(int index) throws IOException {
+    if(index >= values.length) {
+      int length = (int) Math.min(size, Math.max(index + 1L, 2L * values.length));
+      int old = values.length;
+      values = Arrays.copyOf(values, length);
+      Arrays.fill(values, old, length, UNDECODED);
+      offsets = Arrays.copyOf(offsets, length + 1);
+    }
+    while(known <= index) {
+      unpacker.position(offsets[known - 1]);
+      unpacker.skipObject(unpacker.nextTag());
+      offsets[known] = unpacker.position();
+      known++;
+    }
+  }
+}
@@ -0,0 +1,187 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.core;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/*
+  Read-only map view, see LeonValue. Keys are decoded in encoding order only
+  as far as needed to find the one looked up, values are decoded on first
+  access.
+*/
+public final class LeonMap extends AbstractMap<Object, Object> {
+  private static final Object UNDECODED = new Object();
+
+  private final LeonUnpacker unpacker;
+  private final int size;
+  private final HashMap<Object, Integer> index = new HashMap<>();
+  private Object[] keys;
+  private Object[] values;
+  private long[] valueOffsets;
+  private int scanned;
+  private long nextOffset;
+
+  LeonMap(LeonUnpacker unpacker, int size, long start) {
+    this.unpacker = unpacker;
+    this.size = size;
+    this.nextOffset = start;
+    int capacity = Math.min(size, 8);
+    keys = new Object[capacity];
+    values = new Object[capacity];
+    valueOffsets = new long[capacity];
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Object get(Object key) {
+    int i = find(key);
+    return i < 0 ? null : valueAt(i);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return find(key) >= 0;
+  }
+
+  private int find(Object key) {
+    Integer i = index.get(key);
+    if(i != null) {
+      return i;
+    }
+    while(scanned < size) {
+      scanNext();
+      if(key == null ? keys[scanned - 1] == null : key.equals(keys[scanned - 1])) {
+        return scanned - 1;
+      }
+    }
+    return -1;
+  }
+
+  private void scanNext() {
+    try {
+      if(scanned == keys.length) {
+        int length = (int) Math.min(size, 2L * keys.length);
+        keys = Arrays.copyOf(keys, length);
+        values = Arrays.copyOf(values, length);
+        valueOffsets = Arrays.copyOf(valueOffsets, length);
+      }
+      unpacker.position(nextOffset);
+      Object key = LeonValue.read(unpacker);
+      valueOffsets[scanned] = unpacker.position();
+      unpacker.skipObject(unpacker.nextTag());
+      nextOffset = unpacker.position();
+      keys[scanned] = key;
+      values[scanned] = UNDECODED;
+      index.putIfAbsent(key, scanned);
+      scanned++;
+    } catch(IOException e) {
+      throw LeonValue.ioFailure(e);
+    }
+  }
+
+  private Object keyAt(int i) {
+    while(scanned <= i) {
+      scanNext();
+    }
+    return keys[i];
+  }
+
+  private Object valueAt(int i) {
+    Object value = values[i];
+    if(value == UNDECODED) {
+      try {
+        unpacker.position(valueOffsets[i]);
+        value = LeonValue.read(unpacker);
+      } catch(IOException e) {
+        throw LeonValue.ioFailure(e);
+      }
+      values[i] = value;
+    }
+    return value;
+  }
+
+  @Override
+  public Set<Map.Entry<Object, Object>> entrySet() {
+    return new AbstractSet<Map.Entry<Object, Object>>() {
+      @Override
+      public int size() {
+        return size;
+      }
+
+      @Override
+      public Iterator<Map.Entry<Object, Object>> iterator() {
+        return new Iterator<Map.Entry<Object, Object>>() {
+          private int next;
+
+          @Override
+          public boolean hasNext() {
+            return next < size;
+          }
+
+          @Override
+          public Map.Entry<Object, Object> next() {
+            if(next >= size) {
+              throw new NoSuchElementException();
+            }
+            final int i = next++;
+            final Object key = keyAt(i);
+            return new Map.Entry<Object, Object>() {
+              @Override
+              public Object getKey() {
+                return key;
+              }
+
+              @Override
+              public Object getValue() {
+                return valueAt(i);
+              }
+
+              @Override
+              public Object setValue(Object value) {
+                throw new UnsupportedOperationException();
+              }
+
+              @Override
+              public boolean equals(Object o) {
+                if(!(o instanceof Map.Entry)) {
+                  return false;
+                }
+                Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                Object value = getValue();
+                return (key == null ? e.getKey() == null : key.equals(e.getKey()))
+                  && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+              }
+
+              @Override
+              public int hashCode() {
+                Object value = getValue();
+                return (key == null ? 0 : key.hashCode()) ^ (value == null ? 0 : value.hashCode());
+              }
+
+              @Override
+              public String toString() {
+                return key + "=" + getValue();
+              }
+            };
+          }
+        };
+      }
+    };
+  }
+}
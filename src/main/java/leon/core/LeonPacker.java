@@ -6,21 +6,33 @@
 
 package leon.core;
 
-import java.io.BufferedOutputStream;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.Flushable;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static leon.core.Tags.BYTES_TAG;
 import static leon.core.Tags.DOUBLE_TAG;
+import static leon.core.Tags.EXT_ARRAY_FLOAT32;
+import static leon.core.Tags.EXT_ARRAY_FLOAT64;
+import static leon.core.Tags.EXT_ARRAY_INT32;
+import static leon.core.Tags.EXT_ARRAY_INT64;
+import static leon.core.Tags.EXT_CUSTOM;
+import static leon.core.Tags.EXT_DICT_DEF;
+import static leon.core.Tags.EXT_DICT_REF;
+import static leon.core.Tags.EXT_TAG;
 import static leon.core.Tags.FALSE;
+import static leon.core.Tags.FIXED_INT64_TAG;
 import static leon.core.Tags.FLOAT_TAG;
 import static leon.core.Tags.LIST_TAG;
 import static leon.core.Tags.MAP_TAG;
@@ -38,11 +50,12 @@ import static leon.core.Tags.TRUE;
   LEON
 
   leon = object {object} .
-  object = integer | null | true | false  | float | double | list | string | bytes | map .
+  object = integer | fixedInt | null | true | false  | float | double | list | string | bytes | map | typedArray | custom | keyDefinition | keyReference .
   length = integer .
   size = integer .
 
   integer = {1XXXXXXX} 00XXXXXX .
+  fixedInt = 01000111 "64 bits little endian two's complement integer" .
   null = 01000000 .
   true = 01000001 .
   false = 01000010 .
@@ -60,6 +73,13 @@ import static leon.core.Tags.TRUE;
   bigMap = 01001000 length {key value} .
   key = object .
   value = object .
+  typedArray = 01000110 elementType length "length little endian elements" .
+  elementType = 00000001 | 00000010 | 00000011 | 00000100 .
+  custom = 01000110 00100000 typeId object .
+  typeId = integer .
+  keyDefinition = 01000110 00010000 id string .
+  keyReference = 01000110 00010001 id .
+  id = integer .
 
   00 XXXXXX  integer -32 <= x < 32
   1X XXXXXX  variable integer payload
@@ -69,8 +89,8 @@ import static leon.core.Tags.TRUE;
   01 000011  float - 32 bits little endian IEEE 754 single precision floating point number
   01 000100  double - 64 bits little endian IEEE 754 double precision floating point number
   01 000101  bytes - size - bytes
-  01 000110  reserved for future extensions
-  01 000111  reserved for future extensions
+  01 000110  extension - extension type - payload
+  01 000111  fixed integer - 64 bits little endian two's complement integer
   01 001000  map - num pairs - list of key value pairs
   01 001XXX  non-empty map of at most 7 key-value pairs - pairs
   01 010000  list - length - elements
@@ -82,57 +102,421 @@ import static leon.core.Tags.TRUE;
 
 
 public final class LeonPacker implements Closeable, Flushable {
+  static final int DEFAULT_BUFFER_SIZE = 8192;
+  static final int HEADER_SIZE = 7;
+
+  /*
+    Every value is encoded into buf first. When the packer has a sink (an
+    OutputStream or a ByteBuffer) the buffer is drained into it with a bulk
+    write once full and on flush(). Without a sink the buffer grows as needed
+    and it can be retrieved with toByteArray() and recycled with reset().
+    A write-through packer drains the buffer after every packed value.
+  */
   private OutputStream out;
+  private boolean writeThrough;
+  private ByteBuffer target;
+  private byte[] buf;
+  private int pos;
+  private long drained;
+  private final int initialSize;
+
+  /*
+    When indexing, the offset of every top-level object is recorded. open
+    holds, for each list or map being packed, how many of its values are
+    still to be packed, so that a value packed with an empty stack starts a
+    new top-level object.
+  */
+  private String path;
+  private long[] index;
+  private int indexSize;
+  private long[] open;
+  private int depth;
+
+  /*
+    Lists and maps started with beginList or beginMap have their header,
+    at position headers[d] in buf, written by endList or endMap once the
+    number of values is known. Space for the largest header is reserved
+    and the values are moved back over the unused part. The open count of
+    such a frame starts from DEFERRED, the buffer is not drained while one
+    is open. Value tracking is on while indexing or with deferred frames.
+  */
+  private static final long DEFERRED = Long.MAX_VALUE;
+  private static final int MAX_HEADER_SIZE = 11;
+  private int[] headers;
+  private boolean[] headerMap;
+  private int deferred;
+  private boolean tracking;
 
+  private LeonRegistry registry = LeonRegistry.DEFAULT;
+  private boolean fixedWidthInts;
+
+  /*
+    Key dictionary: the first time a key is packed it is defined with the
+    next id, later occurrences refer to the id. The dictionary lives until
+    reset(), keys beyond capacity or shorter than minLength are packed as
+    plain strings.
+  */
+  private HashMap<String, Integer> dictionary;
+  private int dictionaryCapacity;
+  private int dictionaryMinLength;
+
+  // Every packed value is written to out before the pack method returns
   public LeonPacker(OutputStream out) {
+    this(out, DEFAULT_BUFFER_SIZE);
+    this.writeThrough = true;
+  }
+
+  // Values are buffered and written to out in bufferSize chunks, the packer
+  // must be flushed or closed.
+  public LeonPacker(OutputStream out, int bufferSize) {
+    if(bufferSize <= 0) {
+      throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+    }
     this.out = out;
+    this.buf = new byte[bufferSize];
+    this.initialSize = bufferSize;
   }
 
+  // A sidecar index left by a previous version of the file is deleted
   public LeonPacker(String path) throws IOException {
-    this.out = new BufferedOutputStream(new FileOutputStream(new File(path)));
-    out.write((int) 'L');
-    out.write((int) 'E');
-    out.write((int) 'O');
-    out.write((int) 'N');
-    out.write(1);
-    out.write(0);
-    out.write(0);
+    this(new FileOutputStream(new File(path)), DEFAULT_BUFFER_SIZE);
+    Files.deleteIfExists(Paths.get(LeonIndex.sidecarPath(path)));
+    packHeader();
+  }
+
+  // With index set, the offsets of the top-level objects are saved in the
+  // sidecar file LeonIndex.sidecarPath(path) on close.
+  public LeonPacker(String path, boolean index) throws IOException {
+    this(path);
+    if(index) {
+      this.path = path;
+      this.index = new long[64];
+      this.tracking = true;
+    }
+  }
+
+  public LeonPacker(ByteBuffer target) {
+    this.target = target;
+    this.buf = new byte[DEFAULT_BUFFER_SIZE];
+    this.initialSize = DEFAULT_BUFFER_SIZE;
+  }
+
+  public LeonPacker() {
+    this(256);
+  }
+
+  public LeonPacker(int initialCapacity) {
+    this.buf = new byte[Math.max(initialCapacity, 16)];
+    this.initialSize = buf.length;
+  }
+
+  // Types without a registered codec fall back to the builtin encoders
+  public void setRegistry(LeonRegistry registry) {
+    this.registry = registry;
+  }
+
+  /*
+    Enables the key dictionary for String map keys and packKey, for keys of
+    at least minLength UTF-8 bytes. Decoding a reference needs the
+    definitions before it, so streams using it must be decoded sequentially
+    from the start: seeking to an indexed object, decoding a lazy view or
+    reading the file with LeonParallelReader fails on an undefined id.
+  */
+  public void setKeyDictionary(int capacity, int minLength) {
+    if(capacity < 0 || minLength < 0) {
+      throw new IllegalArgumentException("Negative key dictionary capacity or minimum length");
+    }
+    dictionary = capacity == 0 ? null : new HashMap<>();
+    dictionaryCapacity = capacity;
+    dictionaryMinLength = minLength;
+  }
+
+  /*
+    With fixed width integers packInt writes the integers that need 9 or 10
+    bytes as a varint, |x| >= 2^54, with the 9 bytes fixed integer tag
+    instead: smaller or as small and decoded without a loop. Useful for
+    hashes and random 64 bits ids, readers must support the fixed tag.
+  */
+  public void setFixedWidthInts(boolean fixedWidthInts) {
+    this.fixedWidthInts = fixedWidthInts;
+  }
+
+  private boolean hasSink() {
+    return out != null || target != null;
+  }
+
+  private void drain() throws IOException {
+    if(pos > 0) {
+      if(out != null) {
+        out.write(buf, 0, pos);
+      } else {
+        target.put(buf, 0, pos);
+      }
+      drained += pos;
+      pos = 0;
+    }
+  }
+
+  private LeonPacker written() throws IOException {
+    if(writeThrough && canDrain()) {
+      drain();
+    }
+    return this;
+  }
+
+  private void ensure(int n) throws IOException {
+    if(buf.length - pos < n) {
+      grow(n);
+    }
+  }
+
+  private boolean canDrain() {
+    return deferred == 0 && hasSink();
+  }
+
+  private void grow(int n) throws IOException {
+    if(canDrain()) {
+      drain();
+      if(buf.length >= n) {
+        return;
+      }
+    }
+    long newLength = Math.max(2L * buf.length, (long) pos + n);
+    if(newLength > Integer.MAX_VALUE - 8) {
+      if((long) pos + n > Integer.MAX_VALUE - 8) {
+        throw new OutOfMemoryError("Packer buffer too large");
+      }
+      newLength = Integer.MAX_VALUE - 8;
+    }
+    buf = Arrays.copyOf(buf, (int) newLength);
+  }
+
+  private void writeByte(int b) throws IOException {
+    if(pos == buf.length) {
+      grow(1);
+    }
+    buf[pos++] = (byte) b;
+  }
+
+  private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+    if(buf.length - pos < length && canDrain()) {
+      drain();
+      if(length >= buf.length) {
+        // too big to be worth copying into the buffer
+        if(out != null) {
+          out.write(bytes, offset, length);
+        } else {
+          target.put(bytes, offset, length);
+        }
+        drained += length;
+        return;
+      }
+    }
+    ensure(length);
+    System.arraycopy(bytes, offset, buf, pos, length);
+    pos += length;
   }
 
   private void writeLE32Int(int x) throws IOException {
-    out.write((byte) (x & 0xFF));
-    out.write((byte) ((x >> 8) & 0xFF));
-    out.write((byte) ((x >> 16) & 0xFF));
-    out.write((byte) ((x >> 24) & 0xFF));
+    ensure(4);
+    byte[] b = buf;
+    int p = pos;
+    b[p] = (byte) x;
+    b[p + 1] = (byte) (x >> 8);
+    b[p + 2] = (byte) (x >> 16);
+    b[p + 3] = (byte) (x >> 24);
+    pos = p + 4;
+  }
+
+  private void writeLE64Int(long x) throws IOException {
+    ensure(8);
+    byte[] b = buf;
+    int p = pos;
+    b[p] = (byte) x;
+    b[p + 1] = (byte) (x >> 8);
+    b[p + 2] = (byte) (x >> 16);
+    b[p + 3] = (byte) (x >> 24);
+    b[p + 4] = (byte) (x >> 32);
+    b[p + 5] = (byte) (x >> 40);
+    b[p + 6] = (byte) (x >> 48);
+    b[p + 7] = (byte) (x >> 56);
+    pos = p + 8;
+  }
+
+  public LeonPacker packHeader() throws IOException {
+    ensure(HEADER_SIZE);
+    buf[pos++] = (byte) 'L';
+    buf[pos++] = (byte) 'E';
+    buf[pos++] = (byte) 'O';
+    buf[pos++] = (byte) 'N';
+    buf[pos++] = 1;
+    buf[pos++] = 0;
+    buf[pos++] = 0;
+    return written();
+  }
+
+  // Number of bytes packed and not yet drained to the sink, if any.
+  public int size() {
+    return pos;
+  }
+
+  // Number of bytes packed since the packer was created or reset
+  public long position() {
+    return drained + pos;
+  }
+
+  /*
+    Called before packing a value that is followed by the given number of
+    nested values: the elements of a list or the keys and values of a map.
+  */
+  private void startValue(long nested) {
+    if(depth == 0) {
+      if(index != null) {
+        if(indexSize == index.length) {
+          index = Arrays.copyOf(index, indexSize * 2);
+        }
+        index[indexSize++] = position();
+      }
+    } else {
+      open[depth - 1]--;
+    }
+    if(nested > 0) {
+      if(open == null) {
+        open = new long[16];
+        headers = new int[16];
+        headerMap = new boolean[16];
+      } else if(depth == open.length) {
+        open = Arrays.copyOf(open, depth * 2);
+        headers = Arrays.copyOf(headers, depth * 2);
+        headerMap = Arrays.copyOf(headerMap, depth * 2);
+      }
+      headers[depth] = -1;
+      open[depth++] = nested;
+    } else {
+      endValues(0);
+    }
+  }
+
+  // Called after packing count nested values without startValue
+  private void endValues(long count) {
+    if(depth > 0) {
+      open[depth - 1] -= count;
+    }
+    while(depth > 0 && open[depth - 1] == 0) {
+      depth--;
+    }
+    if(depth == 0 && index == null) {
+      tracking = false;
+    }
+  }
+
+  // Offsets of the top-level objects packed so far, null if not indexing
+  public LeonIndex index() {
+    return index == null ? null : new LeonIndex(Arrays.copyOf(index, indexSize));
+  }
+
+  public byte[] toByteArray() {
+    checkBufferBacked();
+    return Arrays.copyOf(buf, pos);
+  }
+
+  // A view of the packed bytes, valid until the next pack or reset call.
+  public ByteBuffer asByteBuffer() {
+    checkBufferBacked();
+    return ByteBuffer.wrap(buf, 0, pos);
+  }
+
+  public LeonPacker reset() {
+    pos = 0;
+    drained = 0;
+    indexSize = 0;
+    depth = 0;
+    deferred = 0;
+    tracking = index != null;
+    if(dictionary != null) {
+      dictionary.clear();
+    }
+    return this;
+  }
+
+  /*
+    Packs to a new sink from now on, keeping the configuration: registry,
+    fixed width integers and key dictionary settings. Bytes not flushed to
+    the previous sink are dropped and it is not closed, indexing stops.
+  */
+  public LeonPacker reset(OutputStream out) {
+    detach();
+    this.out = out;
+    return reset();
+  }
+
+  public LeonPacker reset(ByteBuffer target) {
+    detach();
+    this.target = target;
+    return reset();
+  }
+
+  // Back to buffer-backed, for pooled packers. A buffer grown past
+  // maxRetained is replaced with one of the initial size.
+  void recycle(int maxRetained) {
+    detach();
+    reset();
+    if(buf.length > maxRetained && buf.length > initialSize) {
+      buf = new byte[initialSize];
+    }
+  }
+
+  private void detach() {
+    out = null;
+    target = null;
+    path = null;
+    index = null;
+  }
+
+  private void checkBufferBacked() {
+    if(hasSink()) {
+      throw new IllegalStateException("Packer is not buffer-backed");
+    }
   }
 
   public LeonPacker packBoolean(boolean x) throws IOException {
+    if(tracking) {
+      startValue(0);
+    }
     if(x) {
-      out.write((byte) TRUE);
+      writeByte(TRUE);
     } else {
-      out.write((byte) FALSE);
+      writeByte(FALSE);
     }
-    return this;
+    return written();
   }
 
   public LeonPacker packNull() throws IOException {
-    out.write((byte) NULL);
-    return this;
+    if(tracking) {
+      startValue(0);
+    }
+    writeByte(NULL);
+    return written();
   }
 
   public LeonPacker packFloat(float x) throws IOException {
-    out.write((byte) FLOAT_TAG);
+    if(tracking) {
+      startValue(0);
+    }
+    writeByte(FLOAT_TAG);
     int bits = Float.floatToIntBits(x);
     writeLE32Int(bits);
-    return this;
+    return written();
   }
 
   public LeonPacker packDouble(double x) throws IOException {
-    out.write((byte) DOUBLE_TAG);
+    if(tracking) {
+      startValue(0);
+    }
+    writeByte(DOUBLE_TAG);
     long bits = Double.doubleToLongBits(x);
-    writeLE32Int((int) bits);
-    writeLE32Int((int) (bits >>> 32));
-    return this;
+    writeLE64Int(bits);
+    return written();
   }
 
 
@@ -147,28 +531,157 @@ public final class LeonPacker implements Closeable, Flushable {
    tag 7 bits payload  10000000 = 0x80
   */
   public LeonPacker packInt(long x) throws IOException {
+    if(tracking) {
+      startValue(0);
+    }
+    if(fixedWidthInts && (x >> 54) != (x >> 63)) {
+      writeByte(FIXED_INT64_TAG);
+      writeLE64Int(x);
+      return written();
+    }
+    writeInt(x);
+    return written();
+  }
+
+  public LeonPacker packFixedInt(long x) throws IOException {
+    if(tracking) {
+      startValue(0);
+    }
+    writeByte(FIXED_INT64_TAG);
+    writeLE64Int(x);
+    return written();
+  }
+
+  private LeonPacker writeInt(long x) throws IOException {
+    ensure(10);
+    byte[] b = buf;
+    int p = pos;
     while(x < -32 || x >= 32) {
-      out.write((byte) ((x & 0x7F) + 0x80));
+      b[p++] = (byte) ((x & 0x7F) + 0x80);
       x = x >> 7;
     }
-    out.write((byte) (x & 0x3F));
+    b[p++] = (byte) (x & 0x3F);
+    pos = p;
     return this;
   }
 
   public LeonPacker packString(String str) throws IOException {
-    byte[] str_utf8 = str.getBytes(StandardCharsets.UTF_8);
-    int size = str_utf8.length;
+    if(tracking) {
+      startValue(0);
+    }
+    long size = utf8Size(str);
     if(size > 0 && size <= MAX_BYTES_SMALL_STR) {
-      int header = STR_TAG | size;
-      out.write((byte) header);
+      int header = STR_TAG | (int) size;
+      writeByte(header);
     } else {
-      out.write((byte) STR_TAG);
-      packInt(size);
+      writeByte(STR_TAG);
+      writeInt(size);
+    }
+    writeUtf8(str, size);
+    return written();
+  }
+
+  // Packs a map key, through the key dictionary if enabled
+  public LeonPacker packKey(String key) throws IOException {
+    // UTF-8 is never shorter than the number of chars, only short keys are measured
+    if(dictionary == null || key.length() < dictionaryMinLength && utf8Size(key) < dictionaryMinLength) {
+      return packString(key);
     }
-    for(int i = 0; i < size; i++) {
-      out.write(str_utf8[i]);
+    Integer id = dictionary.get(key);
+    if(id != null) {
+      if(tracking) {
+        startValue(0);
+      }
+      ensure(2);
+      buf[pos++] = (byte) EXT_TAG;
+      buf[pos++] = (byte) EXT_DICT_REF;
+      writeInt(id);
+      return written();
+    }
+    if(dictionary.size() == dictionaryCapacity) {
+      return packString(key);
+    }
+    id = dictionary.size();
+    dictionary.put(key, id);
+    if(tracking) {
+      startValue(1);
+    }
+    ensure(2);
+    buf[pos++] = (byte) EXT_TAG;
+    buf[pos++] = (byte) EXT_DICT_DEF;
+    writeInt(id);
+    return packString(key);
+  }
+
+  /*
+    Strings are encoded straight into the buffer, malformed surrogate pairs
+    are replaced by '?' like String.getBytes(StandardCharsets.UTF_8) does.
+  */
+  static long utf8Size(String str) {
+    int length = str.length();
+    long size = length;
+    for(int i = 0; i < length; i++) {
+      char c = str.charAt(i);
+      if(c >= 0x80) {
+        if(c < 0x800) {
+          size += 1;
+        } else if(!Character.isSurrogate(c)) {
+          size += 2;
+        } else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(str.charAt(i + 1))) {
+          size += 2;
+          i++;
+        }
+      }
+    }
+    return size;
+  }
+
+  private void writeUtf8(String str, long size) throws IOException {
+    int length = str.length();
+    int i = 0;
+    if(!hasSink() && size <= Integer.MAX_VALUE) {
+      ensure((int) size);
+    }
+    while(i < length) {
+      if(buf.length - pos < 4) {
+        grow(4);
+      }
+      byte[] b = buf;
+      int p = pos;
+      int end = Math.min(b.length - 4, p + (length - i));
+      // ASCII fast path, at most one byte per char
+      while(p < end) {
+        char c = str.charAt(i);
+        if(c >= 0x80) {
+          break;
+        }
+        b[p++] = (byte) c;
+        i++;
+      }
+      end = b.length - 4;
+      while(i < length && p <= end) {
+        char c = str.charAt(i++);
+        if(c < 0x80) {
+          b[p++] = (byte) c;
+        } else if(c < 0x800) {
+          b[p++] = (byte) (0xC0 | (c >> 6));
+          b[p++] = (byte) (0x80 | (c & 0x3F));
+        } else if(!Character.isSurrogate(c)) {
+          b[p++] = (byte) (0xE0 | (c >> 12));
+          b[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+          b[p++] = (byte) (0x80 | (c & 0x3F));
+        } else if(Character.isHighSurrogate(c) && i < length && Character.isLowSurrogate(str.charAt(i))) {
+          int cp = Character.toCodePoint(c, str.charAt(i++));
+          b[p++] = (byte) (0xF0 | (cp >> 18));
+          b[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+          b[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+          b[p++] = (byte) (0x80 | (cp & 0x3F));
+        } else {
+          b[p++] = (byte) '?';
+        }
+      }
+      pos = p;
     }
-    return this;
   }
 
 
@@ -178,103 +691,329 @@ public final class LeonPacker implements Closeable, Flushable {
     for(int i = 0; i < length; i++) {
       packObject(list.get(i));
     }
-    return this;
+    return written();
   }
 
   public LeonPacker packListTag(long length) throws IOException {
+    if(tracking) {
+      startValue(length);
+    }
+    writeListHeader(length);
+    return written();
+  }
+
+  private LeonPacker writeListHeader(long length) throws IOException {
     if(length > 0 && length <= MAX_LENGTH_SMALL_LIST) {
       int header = LIST_TAG | (int) length;
-      out.write((byte) header);
+      writeByte(header);
     } else {
-      out.write((byte) LIST_TAG);
-      packInt(length);
+      writeByte(LIST_TAG);
+      writeInt(length);
     }
     return this;
   }
 
+  public LeonPacker packLongArray(long[] array) throws IOException {
+    packListTag(array.length);
+    for(long x : array) {
+      packInt(x);
+    }
+    return written();
+  }
+
+  public LeonPacker packIntArray(int[] array) throws IOException {
+    packListTag(array.length);
+    for(int x : array) {
+      packInt(x);
+    }
+    return written();
+  }
+
+  public LeonPacker packDoubleArray(double[] array) throws IOException {
+    packListTag(array.length);
+    for(double x : array) {
+      ensure(9);
+      buf[pos++] = (byte) DOUBLE_TAG;
+      writeLE64Int(Double.doubleToLongBits(x));
+    }
+    if(tracking) {
+      endValues(array.length);
+    }
+    return written();
+  }
+
+  public LeonPacker packFloatArray(float[] array) throws IOException {
+    packListTag(array.length);
+    for(float x : array) {
+      ensure(5);
+      buf[pos++] = (byte) FLOAT_TAG;
+      writeLE32Int(Float.floatToIntBits(x));
+    }
+    if(tracking) {
+      endValues(array.length);
+    }
+    return written();
+  }
+
+  /*
+    Typed arrays are a LEON extension: the elements are stored as raw little
+    endian values after the element type and the length, without a tag each.
+  */
+  private ByteBuffer typedArrayChunk(int extType, int length, int width, int done) throws IOException {
+    if(done == 0) {
+      if(tracking) {
+        startValue(0);
+      }
+      ensure(2);
+      buf[pos++] = (byte) EXT_TAG;
+      buf[pos++] = (byte) extType;
+      writeInt(length);
+      if(!hasSink() && (long) length * width <= Integer.MAX_VALUE - 8) {
+        ensure(length * width);
+      }
+    }
+    if(buf.length - pos < width) {
+      grow(width);
+    }
+    int n = Math.min(length - done, (buf.length - pos) / width);
+    return ByteBuffer.wrap(buf, pos, n * width).slice().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  public LeonPacker packTypedArray(long[] array) throws IOException {
+    int done = 0;
+    do {
+      ByteBuffer chunk = typedArrayChunk(EXT_ARRAY_INT64, array.length, 8, done);
+      int n = chunk.remaining() / 8;
+      chunk.asLongBuffer().put(array, done, n);
+      pos += n * 8;
+      done += n;
+    } while(done < array.length);
+    return written();
+  }
+
+  public LeonPacker packTypedArray(int[] array) throws IOException {
+    int done = 0;
+    do {
+      ByteBuffer chunk = typedArrayChunk(EXT_ARRAY_INT32, array.length, 4, done);
+      int n = chunk.remaining() / 4;
+      chunk.asIntBuffer().put(array, done, n);
+      pos += n * 4;
+      done += n;
+    } while(done < array.length);
+    return written();
+  }
+
+  public LeonPacker packTypedArray(double[] array) throws IOException {
+    int done = 0;
+    do {
+      ByteBuffer chunk = typedArrayChunk(EXT_ARRAY_FLOAT64, array.length, 8, done);
+      int n = chunk.remaining() / 8;
+      chunk.asDoubleBuffer().put(array, done, n);
+      pos += n * 8;
+      done += n;
+    } while(done < array.length);
+    return written();
+  }
+
+  public LeonPacker packTypedArray(float[] array) throws IOException {
+    int done = 0;
+    do {
+      ByteBuffer chunk = typedArrayChunk(EXT_ARRAY_FLOAT32, array.length, 4, done);
+      int n = chunk.remaining() / 4;
+      chunk.asFloatBuffer().put(array, done, n);
+      pos += n * 4;
+      done += n;
+    } while(done < array.length);
+    return written();
+  }
+
+  // Header of a custom extension, the payload is the next packed object
+  LeonPacker packExtensionTag(int typeId) throws IOException {
+    if(tracking) {
+      startValue(1);
+    }
+    ensure(2);
+    buf[pos++] = (byte) EXT_TAG;
+    buf[pos++] = (byte) EXT_CUSTOM;
+    writeInt(typeId);
+    return this;
+  }
+
   public LeonPacker packBytes(byte[] bytes) throws IOException {
     int size = bytes.length;
     packBytesTag(size);
-    out.write(bytes);
-    return this;
+    writeBytes(bytes, 0, size);
+    return written();
   }
 
   public LeonPacker packRawBytes(byte[] bytes) throws IOException {
-    out.write(bytes);
-    return this;
+    writeBytes(bytes, 0, bytes.length);
+    return written();
+  }
+
+  public LeonPacker packRawBytes(byte[] bytes, int offset, int length) throws IOException {
+    if(offset < 0 || length < 0 || offset > bytes.length - length) {
+      throw new IndexOutOfBoundsException();
+    }
+    writeBytes(bytes, offset, length);
+    return written();
   }
 
   public LeonPacker packBytesTag(long length) throws IOException {
-    out.write((byte) BYTES_TAG);
-    packInt(length);
-    return this;
+    if(tracking) {
+      startValue(0);
+    }
+    writeByte(BYTES_TAG);
+    writeInt(length);
+    return written();
   }
 
   public LeonPacker packMap(Map<Object, Object> map) throws IOException {
     int size = map.size();
     packMapTag(size);
     for(Map.Entry<Object, Object> entry : map.entrySet()) {
-      packObject(entry.getKey());
+      Object key = entry.getKey();
+      if(dictionary != null && key instanceof String) {
+        packKey((String) key);
+      } else {
+        packObject(key);
+      }
       packObject(entry.getValue());
     }
-    return this;
+    return written();
   }
 
   public LeonPacker packMapTag(long size) throws IOException {
+    if(tracking) {
+      startValue(2 * size);
+    }
+    writeMapHeader(size);
+    return written();
+  }
+
+  private LeonPacker writeMapHeader(long size) throws IOException {
     if(size > 0 && size <= MAX_SIZE_SMALL_MAP) {
       int header = MAP_TAG | (int) size;
-      out.write((byte) header);
+      writeByte(header);
     } else {
-      out.write((byte) MAP_TAG);
-      packInt(size);
+      writeByte(MAP_TAG);
+      writeInt(size);
     }
     return this;
   }
 
+  /*
+    Starts a list whose length is given by the number of values packed
+    before the matching endList(), for producers that do not know it in
+    advance. Containers can be nested and mixed with packListTag and
+    packMapTag ones, which must be complete before the enclosing endList.
+  */
+  public LeonPacker beginList() throws IOException {
+    return beginDeferred(false);
+  }
+
+  public LeonPacker endList() throws IOException {
+    return endDeferred(false);
+  }
+
+  // Like beginList, the number of pairs is half the number of values packed
+  public LeonPacker beginMap() throws IOException {
+    return beginDeferred(true);
+  }
+
+  public LeonPacker endMap() throws IOException {
+    return endDeferred(true);
+  }
+
+  private LeonPacker beginDeferred(boolean map) throws IOException {
+    tracking = true;
+    startValue(DEFERRED);
+    ensure(MAX_HEADER_SIZE);
+    headers[depth - 1] = pos;
+    headerMap[depth - 1] = map;
+    deferred++;
+    pos += MAX_HEADER_SIZE;
+    return this;
+  }
+
+  private LeonPacker endDeferred(boolean map) throws IOException {
+    if(depth == 0 || headers[depth - 1] < 0 || headerMap[depth - 1] != map) {
+      throw new IllegalStateException(map ? "No map to end" : "No list to end");
+    }
+    long count = DEFERRED - open[depth - 1];
+    if(map && count % 2 != 0) {
+      throw new IllegalStateException("Map key without value");
+    }
+    int header = headers[depth - 1];
+    int body = header + MAX_HEADER_SIZE;
+    int end = pos;
+    pos = header;
+    if(map) {
+      writeMapHeader(count / 2);
+    } else {
+      writeListHeader(count);
+    }
+    System.arraycopy(buf, body, buf, pos, end - body);
+    pos += end - body;
+    deferred--;
+    depth--;
+    endValues(0);
+    return written();
+  }
+
+  /*
+    Scalars are dispatched with instanceof checks, cheaper than the registry
+    lookup for these final classes, which the registry cannot override.
+    Everything else goes through the per class encoder of the registry.
+  */
   public LeonPacker packObject(Object obj) throws IOException {
-    if(obj instanceof Byte) {
-      packInt((Byte) obj);
-    } else if(obj instanceof Short) {
-      packInt((Short) obj);
-    } else if(obj instanceof Integer) {
-      packInt((Integer) obj);
+    if(obj == null) {
+      return packNull();
     } else if(obj instanceof Long) {
-      packInt((Long) obj);
-    } else if(obj instanceof Float) {
-      packFloat((float) obj);
+      return packInt((Long) obj);
+    } else if(obj instanceof String) {
+      return packString((String) obj);
     } else if(obj instanceof Double) {
-      packDouble((double) obj);
-    } else if(obj == null) {
-      packNull();
+      return packDouble((Double) obj);
+    } else if(obj instanceof Integer) {
+      return packInt((Integer) obj);
     } else if(obj instanceof Boolean) {
-      packBoolean((boolean) obj);
-    } else if(obj instanceof String) {
-      packString((String) obj);
-    } else if(obj instanceof List) {
-      packList((List<Object>) obj);
-    } else if(obj instanceof Map) {
-      packMap((Map<Object, Object>) obj);
-    } else if(obj instanceof byte[]) {
-      packBytes((byte[]) obj);
-    } else if(obj instanceof ToLeon) {
-      ((ToLeon) obj).toLeon(this);
-    } else {
-      throw new LeonException("Unable to pack object, implement ToLeon interface", LeonException.Reason.UnableToPackObj);
+      return packBoolean((Boolean) obj);
+    } else if(obj instanceof Float) {
+      return packFloat((Float) obj);
     }
-    return this;
+    registry.encoder(obj.getClass()).encode(this, obj);
+    return written();
   }
 
+  // Closes the sink even when lists or maps started with beginList or
+  // beginMap are still open, their bytes are lost and it throws.
   @Override
   public void close() throws IOException {
     try {
       flush();
     } finally {
-      out.close();
+      if(out != null) {
+        out.close();
+      }
+    }
+    if(path != null) {
+      index().save(path);
     }
   }
 
+  // Bytes of open deferred lists and maps are kept until they are ended,
+  // flushing with one open is an error.
   @Override
   public void flush() throws IOException {
-    out.flush();
+    if(deferred > 0) {
+      throw new IllegalStateException("Unbalanced beginList or beginMap: " + deferred + " not ended");
+    }
+    if(canDrain()) {
+      drain();
+    }
+    if(out != null) {
+      out.flush();
+    }
   }
 }
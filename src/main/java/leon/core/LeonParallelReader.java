@@ -0,0 +1,146 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/*
+  Decodes the top-level objects of a file in parallel. The file is memory
+  mapped and split on object boundaries, taken from the sidecar index when
+  present or found with a skipObject scan otherwise. Each split decodes its
+  range with its own cursor over the shared mapping. stream() runs on the
+  common ForkJoinPool, or on the pool it is invoked from.
+
+  Splits start with an empty key dictionary, so files packed with
+  LeonPacker.setKeyDictionary cannot be read in parallel. Without an index
+  the scan detects them, with an index the first split that refers to a
+  key defined in an earlier one fails.
+*/
+public final class LeonParallelReader implements Closeable {
+  private static final int MIN_SPLIT_SIZE = 64;
+
+  private final LeonInput.Mapped input;
+  private final long[] offsets;
+
+  public LeonParallelReader(String path) throws IOException {
+    FileChannel channel = FileChannel.open(Paths.get(path));
+    input = new LeonInput.Mapped(channel, LeonInput.Mapped.DEFAULT_CHUNK_SIZE);
+    try {
+      LeonUnpacker unpkr = new LeonUnpacker(input.duplicate());
+      unpkr.unpackHeader();
+      if(new File(LeonIndex.sidecarPath(path)).exists()) {
+        offsets = LeonIndex.load(path).check(unpkr.position(), channel.size()).offsets();
+      } else {
+        offsets = scan(unpkr);
+        if(unpkr.keyDictionarySize() > 0) {
+          throw new LeonException("A file written with a key dictionary cannot be read in parallel", LeonException.Reason.UnableToUnpackObj);
+        }
+      }
+    } catch(IOException | RuntimeException e) {
+      input.close();
+      throw e;
+    }
+  }
+
+  private static long[] scan(LeonUnpacker unpkr) throws IOException {
+    long[] offsets = new long[1024];
+    int size = 0;
+    long position = unpkr.position();
+    int tag = unpkr.nextTag();
+    while(tag != Tags.EOF) {
+      if(size == offsets.length) {
+        if(size == Integer.MAX_VALUE - 8) {
+          throw new LeonException("Too many top-level objects", LeonException.Reason.UnableToUnpackObj);
+        }
+        offsets = Arrays.copyOf(offsets, (int) Math.min(2L * size, Integer.MAX_VALUE - 8));
+      }
+      offsets[size++] = position;
+      unpkr.skipObject(tag);
+      position = unpkr.position();
+      tag = unpkr.nextTag();
+    }
+    return Arrays.copyOf(offsets, size);
+  }
+
+  // Number of top-level objects
+  public long size() {
+    return offsets.length;
+  }
+
+  public Spliterator<Object> spliterator() {
+    return new ObjectSpliterator(0, offsets.length);
+  }
+
+  public Stream<Object> stream() {
+    return StreamSupport.stream(spliterator(), true);
+  }
+
+  @Override
+  public void close() throws IOException {
+    input.close();
+  }
+
+  private final class ObjectSpliterator implements Spliterator<Object> {
+    private int lo;
+    private final int hi;
+    private LeonUnpacker unpacker;
+
+    ObjectSpliterator(int lo, int hi) {
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Object> action) {
+      if(lo >= hi) {
+        return false;
+      }
+      try {
+        if(unpacker == null) {
+          unpacker = new LeonUnpacker(input.duplicate());
+          unpacker.position(offsets[lo]);
+        }
+        action.accept(unpacker.unpackObject());
+      } catch(IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      lo++;
+      return true;
+    }
+
+    @Override
+    public Spliterator<Object> trySplit() {
+      if(unpacker != null || hi - lo < 2 * MIN_SPLIT_SIZE) {
+        return null;
+      }
+      int mid = (lo + hi) >>> 1;
+      Spliterator<Object> prefix = new ObjectSpliterator(lo, mid);
+      lo = mid;
+      return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+      return hi - lo;
+    }
+
+    @Override
+    public int characteristics() {
+      return ORDERED | SIZED | SUBSIZED | IMMUTABLE;
+    }
+  }
+}
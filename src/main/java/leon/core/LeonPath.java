@@ -0,0 +1,105 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.core;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/*
+  A path to a value nested in lists and maps, evaluated against the encoded
+  bytes: everything that is not on the path is skipped without decoding.
+  Integer and Long segments are indices for lists and integer keys for maps,
+  String segments are compared to string keys on their UTF-8 bytes, any
+  other segment is compared with equals() to the decoded key.
+*/
+public final class LeonPath {
+  private final Object[] segments;
+  private final byte[][] utf8Keys;
+
+  private LeonPath(Object[] segments) {
+    this.segments = segments.clone();
+    this.utf8Keys = new byte[segments.length][];
+    for(int i = 0; i < segments.length; i++) {
+      Object segment = segments[i];
+      if(segment instanceof String) {
+        utf8Keys[i] = ((String) segment).getBytes(StandardCharsets.UTF_8);
+      } else if(segment instanceof Integer || segment instanceof Short || segment instanceof Byte) {
+        this.segments[i] = ((Number) segment).longValue();
+      }
+    }
+  }
+
+  public static LeonPath of(Object... segments) {
+    return new LeonPath(segments);
+  }
+
+  /*
+    Moves the unpacker to the value at the end of the path and returns true,
+    the value can then be read with any unpack method. Returns false if the
+    path does not exist, the unpacker is then left inside the object.
+  */
+  public boolean locate(LeonUnpacker unpacker) throws IOException {
+    for(int i = 0; i < segments.length; i++) {
+      int tag = unpacker.nextTag();
+      int kind = Tags.kind(tag);
+      if(kind == Tags.KIND_LIST && segments[i] instanceof Long) {
+        long index = (Long) segments[i];
+        long length = unpacker.unpackListLengthWithTag(tag);
+        if(index < 0 || index >= length) {
+          return false;
+        }
+        for(long j = 0; j < index; j++) {
+          unpacker.skipObject(unpacker.nextTag());
+        }
+      } else if(kind == Tags.KIND_MAP) {
+        long size = unpacker.unpackMapSizeWithTag(tag);
+        boolean found = false;
+        for(long j = 0; j < size && !found; j++) {
+          found = matchKey(unpacker, unpacker.nextTag(), i);
+          if(!found) {
+            unpacker.skipObject(unpacker.nextTag());
+          }
+        }
+        if(!found) {
+          return false;
+        }
+      } else {
+        unpacker.skipObject(tag);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Consumes the key and tells whether it matches the segment
+  private boolean matchKey(LeonUnpacker unpacker, int tag, int i) throws IOException {
+    Object segment = segments[i];
+    int kind = Tags.kind(tag);
+    if(utf8Keys[i] != null) {
+      if(kind == Tags.KIND_STRING || kind == Tags.KIND_EXT) {
+        return unpacker.unpackStringEqualsWithTag(tag, utf8Keys[i]);
+      }
+    } else if(segment instanceof Long) {
+      if(kind == Tags.KIND_INT) {
+        return unpacker.unpackIntWithTag(tag) == (Long) segment;
+      }
+    } else if(kind != Tags.KIND_LIST && kind != Tags.KIND_MAP) {
+      Object key = unpacker.unpackObjectWithTag(tag);
+      return segment == null ? key == null : segment.equals(key);
+    }
+    unpacker.skipObject(tag);
+    return false;
+  }
+
+  // The value at the end of the path, or missing if the path does not exist
+  public Object read(LeonUnpacker unpacker, Object missing) throws IOException {
+    if(locate(unpacker)) {
+      return unpacker.unpackObject();
+    }
+    return missing;
+  }
+}
@@ -0,0 +1,98 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.core;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/*
+  Bounded pool of packers or unpackers shared by all threads. An instance
+  is owned by one thread between acquire() and release(), which resets it
+  and drops its reference to the input or sink. Nothing is bound to a
+  thread, so the pool works the same with many short-lived virtual
+  threads. acquire() never waits: an empty pool creates a new instance and
+  a full pool drops the released one. The memory kept by a pooled instance
+  is bounded too: buffers grown past MAX_RETAINED_SIZE bytes by a large
+  value are released with it.
+*/
+public final class LeonPool<T> {
+  public static final int MAX_RETAINED_SIZE = 1 << 16;
+
+  private final ArrayBlockingQueue<T> idle;
+  private final Supplier<T> factory;
+  private final Consumer<T> recycler;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder created = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+
+  public LeonPool(int capacity, Supplier<T> factory, Consumer<T> recycler) {
+    if(capacity <= 0) {
+      throw new IllegalArgumentException("Invalid capacity: " + capacity);
+    }
+    this.idle = new ArrayBlockingQueue<>(capacity);
+    this.factory = factory;
+    this.recycler = recycler;
+  }
+
+  // Buffer-backed packers created by factory, e.g. with a registry set
+  public static LeonPool<LeonPacker> packers(int capacity, Supplier<LeonPacker> factory) {
+    return new LeonPool<>(capacity, factory, packer -> packer.recycle(MAX_RETAINED_SIZE));
+  }
+
+  public static LeonPool<LeonPacker> packers(int capacity) {
+    return packers(capacity, LeonPacker::new);
+  }
+
+  // Unpackers created by factory, to be pointed at their input with reset
+  public static LeonPool<LeonUnpacker> unpackers(int capacity, Supplier<LeonUnpacker> factory) {
+    return new LeonPool<>(capacity, factory, unpacker -> unpacker.recycle(MAX_RETAINED_SIZE));
+  }
+
+  public static LeonPool<LeonUnpacker> unpackers(int capacity) {
+    return unpackers(capacity, () -> new LeonUnpacker(LeonUnpacker.EMPTY));
+  }
+
+  public T acquire() {
+    T x = idle.poll();
+    if(x != null) {
+      hits.increment();
+      return x;
+    }
+    created.increment();
+    return factory.get();
+  }
+
+  // Gives back an instance from acquire(), it must not be used afterwards
+  public void release(T x) {
+    recycler.accept(x);
+    if(!idle.offer(x)) {
+      dropped.increment();
+    }
+  }
+
+  // Acquired instances that came from the pool
+  public long hits() {
+    return hits.sum();
+  }
+
+  // Instances created because the pool was empty
+  public long created() {
+    return created.sum();
+  }
+
+  // Released instances not kept because the pool was full
+  public long dropped() {
+    return dropped.sum();
+  }
+
+  // Instances waiting in the pool
+  public int idle() {
+    return idle.size();
+  }
+}
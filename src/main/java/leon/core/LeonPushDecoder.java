@@ -0,0 +1,304 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/*
+  Non-blocking decoder: feed() accepts the input in chunks of any size, as
+  they arrive from the network, and never waits for more. The bytes of the
+  current top-level object are buffered while a state machine follows its
+  structure: the state survives between chunks, e.g. half a varint or the
+  number of values still missing in each open list and map. Once an object
+  is complete it is decoded from the buffer and passed to the sink.
+
+  A single unpacker decodes all the objects, so key dictionaries work across
+  objects and unpacker() can be configured with a registry or string cache.
+  After an exception the decoder cannot be used any further.
+*/
+public final class LeonPushDecoder {
+  private static final int HEADER_SIZE = 7;
+
+  private static final int STATE_HEADER = 0;
+  private static final int STATE_TAG = 1;
+  private static final int STATE_INT = 2;
+  private static final int STATE_LENGTH = 3;
+  private static final int STATE_SKIP = 4;
+  private static final int STATE_EXT_TYPE = 5;
+
+  // What the integer read in STATE_LENGTH is for
+  private static final int FOR_LIST = 0;
+  private static final int FOR_MAP = 1;
+  private static final int FOR_PAYLOAD = 2;
+  private static final int FOR_TYPED_ARRAY = 3;
+  private static final int FOR_KEY_DEFINITION = 4;
+  private static final int FOR_KEY_REFERENCE = 5;
+  private static final int FOR_CUSTOM = 6;
+
+  private final Consumer<Object> sink;
+  private final LeonInput.Array input = new LeonInput.Array(new byte[0], 0, 0);
+  private final LeonUnpacker unpacker = new LeonUnpacker(input);
+
+  // buf[start, scan) is the scanned part of the current object, buf[scan, limit) what is left to scan
+  private byte[] buf = new byte[4096];
+  private int start;
+  private int scan;
+  private int limit;
+
+  private int state;
+  private int lengthFor;
+  private int width;
+  private long varint;
+  private int shift;
+  private long skip;
+  // Values still to be scanned in each open list, map or extension
+  private long[] remaining = new long[16];
+  private int depth;
+
+  public LeonPushDecoder(boolean header, Consumer<Object> sink) {
+    this.sink = sink;
+    this.state = header ? STATE_HEADER : STATE_TAG;
+  }
+
+  // The unpacker used to decode complete objects, holding the header version
+  public LeonUnpacker unpacker() {
+    return unpacker;
+  }
+
+  // True if the bytes fed so far end in the middle of an object
+  public boolean hasPartialObject() {
+    return limit > start;
+  }
+
+  // Consumes all the remaining bytes of chunk
+  public void feed(ByteBuffer chunk) throws IOException {
+    int n = chunk.remaining();
+    if(buf.length - limit < n) {
+      if(limit - start + (long) n > Integer.MAX_VALUE - 8) {
+        throw new LeonException("Object too large", LeonException.Reason.UnableToUnpackObj);
+      }
+      compact();
+      if(buf.length - limit < n) {
+        buf = Arrays.copyOf(buf, (int) Math.min(Math.max(2L * buf.length, limit + (long) n), Integer.MAX_VALUE - 8));
+      }
+    }
+    chunk.get(buf, limit, n);
+    limit += n;
+    while(scan < limit) {
+      int b = buf[scan] & 0xFF;
+      switch(state) {
+        case STATE_TAG:
+          scan++;
+          tag(b);
+          break;
+        case STATE_INT:
+          scan++;
+          if(b < 0x40) {
+            valueDone();
+          }
+          break;
+        case STATE_LENGTH:
+          scan++;
+          if(b >= 0x40) {
+            varint += (long) (b - 0x80) << shift;
+            shift += 7;
+            if(shift > 63) {
+              throw new LeonException("Integer too large", LeonException.Reason.UnableToUnpackObj);
+            }
+          } else {
+            lengthDone(varint + ((long) ((b & 0x1F) - (b & 0x20)) << shift));
+          }
+          break;
+        case STATE_SKIP:
+          int size = (int) Math.min(skip, limit - scan);
+          scan += size;
+          skip -= size;
+          if(skip == 0) {
+            valueDone();
+          }
+          break;
+        case STATE_EXT_TYPE:
+          scan++;
+          extension(b);
+          break;
+        case STATE_HEADER:
+          scan++;
+          if(scan - start == HEADER_SIZE) {
+            input.reset(buf, start, HEADER_SIZE);
+            unpacker.unpackHeader();
+            start = scan;
+            state = STATE_TAG;
+          }
+          break;
+        default:
+          throw new LeonException("Internal error invalid decoder state", LeonException.Reason.InternalError);
+      }
+    }
+    if(start == limit) {
+      start = scan = limit = 0;
+    }
+  }
+
+  private void compact() {
+    System.arraycopy(buf, start, buf, 0, limit - start);
+    scan -= start;
+    limit -= start;
+    start = 0;
+  }
+
+  private void tag(int tag) throws IOException {
+    switch(Tags.kind(tag)) {
+      case Tags.KIND_INT:
+        if(tag == Tags.FIXED_INT64_TAG) {
+          skip(8);
+        } else if(tag >= 0x80) {
+          state = STATE_INT;
+        } else {
+          valueDone();
+        }
+        return;
+      case Tags.KIND_NULL:
+      case Tags.KIND_TRUE:
+      case Tags.KIND_FALSE:
+        valueDone();
+        return;
+      case Tags.KIND_FLOAT:
+        skip(4);
+        return;
+      case Tags.KIND_DOUBLE:
+        skip(8);
+        return;
+      case Tags.KIND_STRING:
+        if(Tags.smallLength(tag) > 0) {
+          skip(Tags.smallLength(tag));
+        } else {
+          readLength(FOR_PAYLOAD);
+        }
+        return;
+      case Tags.KIND_BYTES:
+        readLength(FOR_PAYLOAD);
+        return;
+      case Tags.KIND_LIST:
+        if(Tags.smallLength(tag) > 0) {
+          push(Tags.smallLength(tag));
+        } else {
+          readLength(FOR_LIST);
+        }
+        return;
+      case Tags.KIND_MAP:
+        if(Tags.smallLength(tag) > 0) {
+          push(2L * Tags.smallLength(tag));
+        } else {
+          readLength(FOR_MAP);
+        }
+        return;
+      case Tags.KIND_EXT:
+        state = STATE_EXT_TYPE;
+        return;
+      default:
+        throw new LeonException("Invalid tag " + tag, LeonException.Reason.InvalidTag);
+    }
+  }
+
+  private void extension(int extType) throws IOException {
+    width = Tags.arrayElementSize(extType);
+    if(width > 0) {
+      readLength(FOR_TYPED_ARRAY);
+    } else if(extType == Tags.EXT_DICT_DEF) {
+      readLength(FOR_KEY_DEFINITION);
+    } else if(extType == Tags.EXT_DICT_REF) {
+      readLength(FOR_KEY_REFERENCE);
+    } else if(extType == Tags.EXT_CUSTOM) {
+      readLength(FOR_CUSTOM);
+    } else {
+      throw new LeonException("Unknown extension type " + extType, LeonException.Reason.InvalidTag);
+    }
+  }
+
+  private void readLength(int lengthFor) {
+    this.lengthFor = lengthFor;
+    varint = 0;
+    shift = 0;
+    state = STATE_LENGTH;
+  }
+
+  private void lengthDone(long x) throws IOException {
+    state = STATE_TAG;
+    switch(lengthFor) {
+      case FOR_LIST:
+        push(checkLength(x));
+        return;
+      case FOR_MAP:
+        if(checkLength(x) > Long.MAX_VALUE / 2) {
+          throw new LeonException("Map too large", LeonException.Reason.UnableToUnpackObj);
+        }
+        push(2 * x);
+        return;
+      case FOR_PAYLOAD:
+        skip(checkLength(x));
+        return;
+      case FOR_TYPED_ARRAY:
+        if(checkLength(x) > Long.MAX_VALUE / width) {
+          throw new LeonException("Typed array too large", LeonException.Reason.UnableToUnpackObj);
+        }
+        skip(x * width);
+        return;
+      case FOR_KEY_DEFINITION: // followed by the string
+      case FOR_CUSTOM: // followed by the payload
+        push(1);
+        return;
+      case FOR_KEY_REFERENCE:
+        valueDone();
+        return;
+      default:
+        throw new LeonException("Internal error invalid decoder state", LeonException.Reason.InternalError);
+    }
+  }
+
+  private static long checkLength(long x) {
+    if(x < 0) {
+      throw new LeonException("Negative length or size " + x, LeonException.Reason.UnableToUnpackObj);
+    }
+    return x;
+  }
+
+  private void skip(long size) throws IOException {
+    if(size == 0) {
+      valueDone();
+    } else {
+      skip = size;
+      state = STATE_SKIP;
+    }
+  }
+
+  private void push(long count) throws IOException {
+    if(count == 0) {
+      valueDone();
+      return;
+    }
+    if(depth == remaining.length) {
+      remaining = Arrays.copyOf(remaining, depth * 2);
+    }
+    remaining[depth++] = count;
+  }
+
+  private void valueDone() throws IOException {
+    state = STATE_TAG;
+    while(depth > 0) {
+      if(--remaining[depth - 1] > 0) {
+        return;
+      }
+      depth--;
+    }
+    input.reset(buf, start, scan - start);
+    start = scan;
+    sink.accept(unpacker.unpackObject());
+  }
+}
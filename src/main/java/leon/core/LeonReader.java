@@ -0,0 +1,225 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.core;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+  Pull parser over a LeonUnpacker. next() returns one event per value and
+  one END_LIST or END_MAP event when all the elements of a container have
+  been returned; maps return keys and values as alternated events. The
+  payload of a scalar is decoded only if one of the value accessors is
+  called, otherwise it is skipped by the following next(). Memory use only
+  depends on the nesting depth of the input.
+*/
+public final class LeonReader {
+  public enum Event {START_LIST, END_LIST, START_MAP, END_MAP, INT, FLOAT, DOUBLE, STRING, BYTES, NULL, BOOLEAN, EXTENSION, END_OF_INPUT}
+
+  private final LeonUnpacker unpacker;
+  private long[] remaining = new long[16];
+  private boolean[] inMap = new boolean[16];
+  private int depth;
+  private Event event;
+  private int tag;
+  private int extType;
+  private String keyString;
+  private boolean pending;
+  private boolean key;
+  private long length;
+
+  public LeonReader(LeonUnpacker unpacker) {
+    this.unpacker = unpacker;
+  }
+
+  public Event next() throws IOException {
+    skipPending();
+    key = false;
+    if(depth > 0) {
+      if(remaining[depth - 1] == 0) {
+        depth--;
+        event = inMap[depth] ? Event.END_MAP : Event.END_LIST;
+        return event;
+      }
+      remaining[depth - 1]--;
+      key = inMap[depth - 1] && (remaining[depth - 1] & 1) == 1;
+    }
+    tag = unpacker.nextTag();
+    switch(Tags.kind(tag)) {
+      case Tags.KIND_EOF:
+        if(depth > 0) {
+          throw LeonInput.endOfInput();
+        }
+        event = Event.END_OF_INPUT;
+        break;
+      case Tags.KIND_LIST:
+        length = unpacker.unpackListLengthWithTag(tag);
+        push(false, length);
+        event = Event.START_LIST;
+        break;
+      case Tags.KIND_MAP:
+        length = unpacker.unpackMapSizeWithTag(tag);
+        push(true, 2 * length);
+        event = Event.START_MAP;
+        break;
+      case Tags.KIND_NULL:
+        event = Event.NULL;
+        break;
+      case Tags.KIND_TRUE:
+      case Tags.KIND_FALSE:
+        event = Event.BOOLEAN;
+        break;
+      case Tags.KIND_INT:
+        event = Event.INT;
+        pending = true;
+        break;
+      case Tags.KIND_FLOAT:
+        event = Event.FLOAT;
+        pending = true;
+        break;
+      case Tags.KIND_DOUBLE:
+        event = Event.DOUBLE;
+        pending = true;
+        break;
+      case Tags.KIND_STRING:
+        event = Event.STRING;
+        pending = true;
+        break;
+      case Tags.KIND_BYTES:
+        event = Event.BYTES;
+        pending = true;
+        break;
+      case Tags.KIND_EXT:
+        // Key dictionary entries are strings, read now to keep the dictionary in sync
+        extType = unpacker.unpackExtensionType();
+        if(Tags.isDictionaryEntry(extType)) {
+          keyString = unpacker.unpackDictionaryString(extType);
+          event = Event.STRING;
+        } else {
+          event = Event.EXTENSION;
+        }
+        pending = true;
+        break;
+      default:
+        throw new LeonException("Internal error valid tag not handled", LeonException.Reason.InternalError);
+    }
+    return event;
+  }
+
+  private void skipPending() throws IOException {
+    if(pending) {
+      pending = false;
+      if(tag != Tags.EXT_TAG) {
+        unpacker.skipObject(tag);
+      } else if(keyString == null) {
+        unpacker.skipExtension(extType);
+      }
+    }
+    keyString = null;
+  }
+
+  private void push(boolean map, long count) {
+    if(depth == remaining.length) {
+      remaining = Arrays.copyOf(remaining, depth * 2);
+      inMap = Arrays.copyOf(inMap, depth * 2);
+    }
+    remaining[depth] = count;
+    inMap[depth] = map;
+    depth++;
+  }
+
+  public Event event() {
+    return event;
+  }
+
+  // Number of containers enclosing the next event
+  public int depth() {
+    return depth;
+  }
+
+  // True if the current value is a key of the enclosing map
+  public boolean isKey() {
+    return key;
+  }
+
+  // Number of elements of a list or pairs of a map after START_LIST or START_MAP
+  public long length() {
+    if(event != Event.START_LIST && event != Event.START_MAP) {
+      throw new IllegalStateException("Not at the start of a list or map");
+    }
+    return length;
+  }
+
+  // Skips the remaining elements of the innermost list or map, the next
+  // event is its END_LIST or END_MAP.
+  public void skipChildren() throws IOException {
+    skipPending();
+    if(depth == 0) {
+      return;
+    }
+    long n = remaining[depth - 1];
+    while(n > 0) {
+      unpacker.skipObject(unpacker.nextTag());
+      n--;
+    }
+    remaining[depth - 1] = 0;
+  }
+
+  private void consume(Event expected) {
+    if(event != expected || !pending) {
+      throw new IllegalStateException("No " + expected + " value available");
+    }
+    pending = false;
+  }
+
+  public long longValue() throws IOException {
+    consume(Event.INT);
+    return unpacker.unpackIntWithTag(tag);
+  }
+
+  public double doubleValue() throws IOException {
+    if(event == Event.FLOAT) {
+      return floatValue();
+    }
+    consume(Event.DOUBLE);
+    return unpacker.unpackDoubleWithTag(tag);
+  }
+
+  public float floatValue() throws IOException {
+    consume(Event.FLOAT);
+    return unpacker.unpackFloatWithTag(tag);
+  }
+
+  public String stringValue() throws IOException {
+    consume(Event.STRING);
+    return keyString != null ? keyString : unpacker.unpackStringWithTag(tag);
+  }
+
+  public byte[] bytesValue() throws IOException {
+    consume(Event.BYTES);
+    return unpacker.unpackBytesWithTag(tag);
+  }
+
+  public boolean booleanValue() {
+    if(event != Event.BOOLEAN) {
+      throw new IllegalStateException("No " + Event.BOOLEAN + " value available");
+    }
+    return tag == Tags.TRUE;
+  }
+
+  // The value of any scalar event, typed arrays for EXTENSION events
+  public Object objectValue() throws IOException {
+    if(event == Event.NULL || event == Event.BOOLEAN) {
+      return unpacker.unpackObjectWithTag(tag);
+    }
+    consume(event);
+    if(tag == Tags.EXT_TAG) {
+      return keyString != null ? keyString : unpacker.unpackExtension(extType);
+    }
+    return unpacker.unpackObjectWithTag(tag);
+  }
+}
@@ -0,0 +1,238 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.core;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/*
+  Maps classes to the encoder used by LeonPacker.packObject and custom
+  extension type ids to the codec used by LeonUnpacker.unpackObject. The
+  encoder of a class is resolved once and cached per class, so values
+  other than scalars cost packObject one lookup and one call instead of a
+  chain of instanceof and assignability checks.
+
+  A registered type is packed as a custom extension, the type id followed
+  by the LEON object written by its codec. Ids below MIN_USER_TYPE are
+  reserved for the standard types UUID, Instant and BigDecimal, whose
+  codecs are added with registerStandardTypes(). The default registry of
+  packers and unpackers only has the core LEON types. Types must be
+  registered before the registry is shared with packers and unpackers.
+*/
+public final class LeonRegistry {
+  public static final int UUID_TYPE = 1;
+  public static final int INSTANT_TYPE = 2;
+  public static final int BIG_DECIMAL_TYPE = 3;
+  public static final int MIN_USER_TYPE = 16;
+
+  interface Encoder {
+    void encode(LeonPacker packer, Object obj) throws IOException;
+  }
+
+  private static final class Custom {
+    final Class<?> type;
+    final Encoder encoder;
+
+    Custom(Class<?> type, Encoder encoder) {
+      this.type = type;
+      this.encoder = encoder;
+    }
+  }
+
+  private final Map<Class<?>, Custom> customs = new LinkedHashMap<>();
+  private volatile Map<Integer, LeonCodec<?>> decoders = new HashMap<>();
+  private volatile ClassValue<Encoder> encoders = newEncoders();
+
+  // Packs and unpacks UUID, Instant and BigDecimal with their reserved ids
+  public LeonRegistry registerStandardTypes() {
+    add(UUID.class, UUID_TYPE, UUID_CODEC);
+    add(Instant.class, INSTANT_TYPE, INSTANT_CODEC);
+    add(BigDecimal.class, BIG_DECIMAL_TYPE, BIG_DECIMAL_CODEC);
+    return this;
+  }
+
+  // Subclasses of type use the same codec unless registered themselves.
+  // The core LEON types always use their builtin encoding.
+  public <T> LeonRegistry register(Class<T> type, int typeId, LeonCodec<T> codec) {
+    if(typeId < MIN_USER_TYPE) {
+      throw new IllegalArgumentException("Type ids below " + MIN_USER_TYPE + " are reserved");
+    }
+    if(CORE.containsKey(type)) {
+      throw new IllegalArgumentException(type.getName() + " is a core LEON type");
+    }
+    add(type, typeId, codec);
+    return this;
+  }
+
+  private synchronized <T> void add(Class<T> type, int typeId, LeonCodec<T> codec) {
+    if(decoders.containsKey(typeId)) {
+      throw new IllegalArgumentException("Type id " + typeId + " already registered");
+    }
+    if(customs.containsKey(type)) {
+      throw new IllegalArgumentException(type.getName() + " already registered");
+    }
+    customs.put(type, new Custom(type, (packer, obj) -> {
+      packer.packExtensionTag(typeId);
+      codec.pack(packer, type.cast(obj));
+    }));
+    Map<Integer, LeonCodec<?>> copy = new HashMap<>(decoders);
+    copy.put(typeId, codec);
+    decoders = copy;
+    encoders = newEncoders();
+  }
+
+  Encoder encoder(Class<?> type) {
+    return encoders.get(type);
+  }
+
+  LeonCodec<?> decoder(int typeId) {
+    return decoders.get(typeId);
+  }
+
+  private ClassValue<Encoder> newEncoders() {
+    return new ClassValue<Encoder>() {
+      @Override
+      protected Encoder computeValue(Class<?> type) {
+        return resolve(type);
+      }
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  private synchronized Encoder resolve(Class<?> type) {
+    Custom custom = customs.get(type);
+    if(custom != null) {
+      return custom.encoder;
+    }
+    Encoder core = CORE.get(type);
+    if(core != null) {
+      return core;
+    }
+    for(Custom c : customs.values()) {
+      if(c.type.isAssignableFrom(type)) {
+        return c.encoder;
+      }
+    }
+    if(List.class.isAssignableFrom(type)) {
+      return (packer, obj) -> packer.packList((List<Object>) obj);
+    } else if(Map.class.isAssignableFrom(type)) {
+      return (packer, obj) -> packer.packMap((Map<Object, Object>) obj);
+    } else if(ToLeon.class.isAssignableFrom(type)) {
+      return (packer, obj) -> ((ToLeon) obj).toLeon(packer);
+    }
+    return (packer, obj) -> {
+      throw new LeonException("Unable to pack object, implement ToLeon interface or register a codec", LeonException.Reason.UnableToPackObj);
+    };
+  }
+
+  private static final Map<Class<?>, Encoder> CORE = new HashMap<>();
+
+  static {
+    CORE.put(Byte.class, (packer, obj) -> packer.packInt((Byte) obj));
+    CORE.put(Short.class, (packer, obj) -> packer.packInt((Short) obj));
+    CORE.put(Integer.class, (packer, obj) -> packer.packInt((Integer) obj));
+    CORE.put(Long.class, (packer, obj) -> packer.packInt((Long) obj));
+    CORE.put(Float.class, (packer, obj) -> packer.packFloat((Float) obj));
+    CORE.put(Double.class, (packer, obj) -> packer.packDouble((Double) obj));
+    CORE.put(Boolean.class, (packer, obj) -> packer.packBoolean((Boolean) obj));
+    CORE.put(String.class, (packer, obj) -> packer.packString((String) obj));
+    CORE.put(byte[].class, (packer, obj) -> packer.packBytes((byte[]) obj));
+    CORE.put(long[].class, (packer, obj) -> packer.packLongArray((long[]) obj));
+    CORE.put(int[].class, (packer, obj) -> packer.packIntArray((int[]) obj));
+    CORE.put(double[].class, (packer, obj) -> packer.packDoubleArray((double[]) obj));
+    CORE.put(float[].class, (packer, obj) -> packer.packFloatArray((float[]) obj));
+  }
+
+  // 16 bytes, most significant long first, each in little endian
+  private static final LeonCodec<UUID> UUID_CODEC = new LeonCodec<UUID>() {
+    @Override
+    public LeonPacker pack(LeonPacker packer, UUID value) throws IOException {
+      ByteBuffer bb = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+      bb.putLong(value.getMostSignificantBits()).putLong(value.getLeastSignificantBits());
+      return packer.packBytes(bb.array());
+    }
+
+    @Override
+    public UUID unpack(LeonUnpacker unpacker) throws IOException {
+      byte[] bytes = unpacker.unpackBytes();
+      if(bytes.length != 16) {
+        throw new LeonException("Invalid UUID size " + bytes.length, LeonException.Reason.UnableToUnpackObj);
+      }
+      ByteBuffer bb = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+      return new UUID(bb.getLong(), bb.getLong());
+    }
+  };
+
+  // [epoch seconds, nanoseconds]
+  private static final LeonCodec<Instant> INSTANT_CODEC = new LeonCodec<Instant>() {
+    @Override
+    public LeonPacker pack(LeonPacker packer, Instant value) throws IOException {
+      return packer.packListTag(2).packInt(value.getEpochSecond()).packInt(value.getNano());
+    }
+
+    @Override
+    public Instant unpack(LeonUnpacker unpacker) throws IOException {
+      expectPair(unpacker);
+      long seconds = unpacker.unpackInt();
+      return Instant.ofEpochSecond(seconds, unpacker.unpackInt());
+    }
+  };
+
+  // [scale, unscaled value], the unscaled value is an integer when it fits
+  // in 64 bits, bytes in little endian two's complement otherwise
+  private static final LeonCodec<BigDecimal> BIG_DECIMAL_CODEC = new LeonCodec<BigDecimal>() {
+    @Override
+    public LeonPacker pack(LeonPacker packer, BigDecimal value) throws IOException {
+      packer.packListTag(2).packInt(value.scale());
+      BigInteger unscaled = value.unscaledValue();
+      if(unscaled.bitLength() < 64) {
+        return packer.packInt(unscaled.longValue());
+      }
+      byte[] bytes = unscaled.toByteArray();
+      reverse(bytes);
+      return packer.packBytes(bytes);
+    }
+
+    @Override
+    public BigDecimal unpack(LeonUnpacker unpacker) throws IOException {
+      expectPair(unpacker);
+      int scale = (int) unpacker.unpackInt();
+      int tag = unpacker.nextTag();
+      if(Tags.isBytes(tag)) {
+        byte[] bytes = unpacker.unpackBytesWithTag(tag);
+        reverse(bytes);
+        return new BigDecimal(new BigInteger(bytes), scale);
+      }
+      return BigDecimal.valueOf(unpacker.unpackIntWithTag(tag), scale);
+    }
+  };
+
+  static final LeonRegistry DEFAULT = new LeonRegistry();
+
+  private static void expectPair(LeonUnpacker unpacker) throws IOException {
+    if(unpacker.unpackListLengthWithTag(unpacker.nextTag()) != 2) {
+      throw new LeonException("Expecting a list of two elements", LeonException.Reason.UnableToUnpackObj);
+    }
+  }
+
+  private static void reverse(byte[] bytes) {
+    for(int i = 0, j = bytes.length - 1; i < j; i++, j--) {
+      byte t = bytes[i];
+      bytes[i] = bytes[j];
+      bytes[j] = t;
+    }
+  }
+}
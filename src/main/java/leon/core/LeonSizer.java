@@ -0,0 +1,107 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.core;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static leon.core.Tags.MAX_BYTES_SMALL_STR;
+import static leon.core.Tags.MAX_LENGTH_SMALL_LIST;
+import static leon.core.Tags.MAX_SIZE_SMALL_MAP;
+
+/*
+  Exact number of bytes LeonPacker.packObject writes for a value, computed
+  with the same small tag and integer rules without encoding it. Other
+  values, ToLeon objects, are packed into a scratch buffer to be
+  measured. The key dictionary and fixed width
+  integers are not taken into account.
+*/
+public final class LeonSizer {
+  private LeonSizer() {
+  }
+
+  public static int sizeOfInt(long x) {
+    int size = 1;
+    while(x < -32 || x >= 32) {
+      x = x >> 7;
+      size++;
+    }
+    return size;
+  }
+
+  // Size of packInt(x) with LeonPacker.setFixedWidthInts(fixedWidth)
+  public static int sizeOfInt(long x, boolean fixedWidth) {
+    return fixedWidth && (x >> 54) != (x >> 63) ? 9 : sizeOfInt(x);
+  }
+
+  public static long sizeOfString(String str) {
+    long size = LeonPacker.utf8Size(str);
+    return size > 0 && size <= MAX_BYTES_SMALL_STR ? 1 + size : 1 + sizeOfInt(size) + size;
+  }
+
+  public static int sizeOfListTag(long length) {
+    return length > 0 && length <= MAX_LENGTH_SMALL_LIST ? 1 : 1 + sizeOfInt(length);
+  }
+
+  public static int sizeOfMapTag(long size) {
+    return size > 0 && size <= MAX_SIZE_SMALL_MAP ? 1 : 1 + sizeOfInt(size);
+  }
+
+  @SuppressWarnings("unchecked")
+  public static long sizeOf(Object obj) throws IOException {
+    if(obj == null || obj instanceof Boolean) {
+      return 1;
+    } else if(obj instanceof Long || obj instanceof Integer || obj instanceof Short || obj instanceof Byte) {
+      return sizeOfInt(((Number) obj).longValue());
+    } else if(obj instanceof Double) {
+      return 9;
+    } else if(obj instanceof Float) {
+      return 5;
+    } else if(obj instanceof String) {
+      return sizeOfString((String) obj);
+    } else if(obj instanceof byte[]) {
+      int length = ((byte[]) obj).length;
+      return 1 + sizeOfInt(length) + length;
+    } else if(obj instanceof long[]) {
+      long[] array = (long[]) obj;
+      long size = sizeOfListTag(array.length);
+      for(long x : array) {
+        size += sizeOfInt(x);
+      }
+      return size;
+    } else if(obj instanceof int[]) {
+      int[] array = (int[]) obj;
+      long size = sizeOfListTag(array.length);
+      for(int x : array) {
+        size += sizeOfInt(x);
+      }
+      return size;
+    } else if(obj instanceof double[]) {
+      int length = ((double[]) obj).length;
+      return sizeOfListTag(length) + 9L * length;
+    } else if(obj instanceof float[]) {
+      int length = ((float[]) obj).length;
+      return sizeOfListTag(length) + 5L * length;
+    } else if(obj instanceof List) {
+      List<Object> list = (List<Object>) obj;
+      long size = sizeOfListTag(list.size());
+      for(Object x : list) {
+        size += sizeOf(x);
+      }
+      return size;
+    } else if(obj instanceof Map) {
+      Map<Object, Object> map = (Map<Object, Object>) obj;
+      long size = sizeOfMapTag(map.size());
+      for(Map.Entry<Object, Object> entry : map.entrySet()) {
+        size += sizeOf(entry.getKey()) + sizeOf(entry.getValue());
+      }
+      return size;
+    }
+    return new LeonPacker().packObject(obj).position();
+  }
+}
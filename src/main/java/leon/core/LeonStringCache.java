@@ -0,0 +1,95 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+  Bounded cache of decoded strings keyed on their raw UTF-8 bytes. The table
+  is direct mapped: a miss replaces whatever string occupied the slot, so
+  the memory used never exceeds the capacity given at construction.
+  Not thread-safe, use one cache per unpacker or per thread.
+*/
+public final class LeonStringCache {
+  private final int maxSize;
+  private final int mask;
+  private final byte[][] keys;
+  private final String[] values;
+  private long hits;
+  private long misses;
+
+  public LeonStringCache(int capacity) {
+    this(capacity, Tags.MAX_BYTES_SMALL_STR);
+  }
+
+  public LeonStringCache(int capacity, int maxSize) {
+    if(capacity <= 0 || capacity > (1 << 30)) {
+      throw new IllegalArgumentException("Invalid capacity: " + capacity);
+    }
+    if(maxSize < 0) {
+      throw new IllegalArgumentException("Invalid maximum size: " + maxSize);
+    }
+    int n = Integer.highestOneBit(capacity);
+    if(n < capacity) {
+      n = n << 1;
+    }
+    this.maxSize = maxSize;
+    this.mask = n - 1;
+    this.keys = new byte[n][];
+    this.values = new String[n];
+  }
+
+  // Strings larger than maxSize bytes are not cached
+  public int maxSize() {
+    return maxSize;
+  }
+
+  public long hits() {
+    return hits;
+  }
+
+  public long misses() {
+    return misses;
+  }
+
+  public void clear() {
+    Arrays.fill(keys, null);
+    Arrays.fill(values, null);
+    hits = 0;
+    misses = 0;
+  }
+
+  String get(byte[] bytes, int offset, int size) {
+    int h = size;
+    for(int i = 0; i < size; i++) {
+      h = 31 * h + bytes[offset + i];
+    }
+    h ^= (h >>> 16);
+    int slot = h & mask;
+    byte[] key = keys[slot];
+    if(key != null && key.length == size && equals(key, bytes, offset)) {
+      hits++;
+      return values[slot];
+    }
+    misses++;
+    key = Arrays.copyOfRange(bytes, offset, offset + size);
+    String str = new String(key, StandardCharsets.UTF_8);
+    keys[slot] = key;
+    values[slot] = str;
+    return str;
+  }
+
+  private static boolean equals(byte[] key, byte[] bytes, int offset) {
+    for(int i = 0; i < key.length; i++) {
+      if(key[i] != bytes[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
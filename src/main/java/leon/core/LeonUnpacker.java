@@ -6,14 +6,16 @@
 
 package leon.core;
 
-import java.io.BufferedInputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -26,10 +28,60 @@ public final class LeonUnpacker implements Closeable {
   public int minor;
   public int patch;
 
-  private final InputStream in;
+  static final byte[] EMPTY = new byte[0];
 
-  public LeonUnpacker(InputStream in) throws IOException {
+  private LeonInput in;
+  private LeonStringCache stringCache;
+  private String path;
+  private LeonIndex index;
+  private byte[] scratch;
+  private LeonRegistry registry = LeonRegistry.DEFAULT;
+  private LeonBufferPool bufferPool;
+
+  // Key dictionary of the stream, filled by key definitions as they are read
+  private String[] dictStrings;
+  private byte[][] dictUtf8;
+  private int dictSize;
+
+  LeonUnpacker(LeonInput in) {
     this.in = in;
+  }
+
+  public LeonUnpacker(InputStream in) throws IOException {
+    this(new LeonInput.Stream(in));
+    unpackHeader();
+  }
+
+  public LeonUnpacker(String path) throws IOException {
+    this(new LeonInput.Channel(new FileInputStream(new File(path)).getChannel()));
+    this.path = path;
+    unpackHeader();
+  }
+
+  // Memory maps the whole file, skipping strings and bytes does not touch
+  // their content. Closing the unpacker closes the channel.
+  public LeonUnpacker(FileChannel channel) throws IOException {
+    this(new LeonInput.Mapped(channel, LeonInput.Mapped.DEFAULT_CHUNK_SIZE));
+    unpackHeader();
+  }
+
+  // Decodes in place from a byte array or a heap or direct ByteBuffer, the
+  // input is not expected to start with a header, see unpackHeader().
+  public LeonUnpacker(byte[] bytes) {
+    this(bytes, 0, bytes.length);
+  }
+
+  public LeonUnpacker(byte[] bytes, int offset, int length) {
+    this(new LeonInput.Array(bytes, offset, length));
+  }
+
+  public LeonUnpacker(ByteBuffer buffer) {
+    this(buffer.hasArray()
+      ? new LeonInput.Array(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining())
+      : new LeonInput.Buffer(buffer));
+  }
+
+  public void unpackHeader() throws IOException {
     char x0, x1, x2, x3;
     x0 = (char) in.read();
     x1 = (char) in.read();
@@ -43,51 +95,114 @@ public final class LeonUnpacker implements Closeable {
     patch = in.read();
   }
 
-  public LeonUnpacker(String path) throws IOException {
-    this(new BufferedInputStream(new FileInputStream(new File(path))));
+  public void setStringCache(LeonStringCache stringCache) {
+    this.stringCache = stringCache;
+    this.scratch = stringCache == null ? null : new byte[stringCache.maxSize()];
   }
 
+  // Custom extensions are decoded by the codec registered for their type id
+  public void setRegistry(LeonRegistry registry) {
+    this.registry = registry;
+  }
 
-  private int readLE32Int() throws IOException {
-    int x0, x1, x2, x3, x;
-    x0 = in.read();
-    x1 = in.read();
-    x2 = in.read();
-    x3 = in.read();
-    if(x0 == -1 || x1 == -1 || x2 == -1 || x3 == -1) {
-      throw new LeonException("Unexpected end of input reached", UnableToUnpackObj);
+  /*
+    Switches to new input keeping the configuration: string cache, registry
+    and buffer pool. The key dictionary, header version and index are
+    cleared, the previous input is not closed.
+  */
+  public void reset(byte[] bytes, int offset, int length) {
+    if(in instanceof LeonInput.Array) {
+      ((LeonInput.Array) in).reset(bytes, offset, length);
+    } else {
+      in = new LeonInput.Array(bytes, offset, length);
     }
-    x = (((((x3 << 8) + x2) << 8) + x1) << 8) + x0;
-    return x;
+    clearState();
+  }
+
+  public void reset(byte[] bytes) {
+    reset(bytes, 0, bytes.length);
   }
 
-  private void readNumBytes(byte[] bytes, int numToRead) throws IOException {
-    int offset = 0;
-    int numRead = 0;
-    while(numRead != -1 && numToRead > 0) {
-      numRead = in.read(bytes, offset, numToRead);
-      numToRead -= numRead;
-      offset += numRead;
+  public void reset(ByteBuffer buffer) {
+    if(buffer.hasArray()) {
+      reset(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    } else {
+      in = new LeonInput.Buffer(buffer);
+      clearState();
     }
+  }
 
-    if(numRead == -1) {
-      throw new LeonException("Unexpected end of input reached", UnableToUnpackObj);
+  // Like new LeonUnpacker(in), the header is read
+  public void reset(InputStream stream) throws IOException {
+    if(in instanceof LeonInput.Stream) {
+      ((LeonInput.Stream) in).reset(stream);
+    } else {
+      in = new LeonInput.Stream(stream);
     }
+    clearState();
+    unpackHeader();
   }
 
-  private void skipAllBytes(long totSize) throws IOException {
-    if(totSize <= 0) {
-      return;
+  // Drops the reference to the input and the buffers grown past
+  // maxRetained bytes, for pooled unpackers
+  void recycle(int maxRetained) {
+    reset(EMPTY);
+    in.trimBuffers(maxRetained);
+    if(dictStrings != null && dictStrings.length * 16L > maxRetained) {
+      dictStrings = null;
+      dictUtf8 = null;
     }
+  }
+
+  private void clearState() {
+    major = 0;
+    minor = 0;
+    patch = 0;
+    path = null;
+    index = null;
+    if(dictSize > 0) {
+      Arrays.fill(dictStrings, 0, dictSize, null);
+      Arrays.fill(dictUtf8, 0, dictSize, null);
+      dictSize = 0;
+    }
+  }
+
+  // Pool of the buffers returned by unpackPooledBytes, shared or not
+  public void setBufferPool(LeonBufferPool bufferPool) {
+    this.bufferPool = bufferPool;
+  }
+
+  // Number of key dictionary entries defined so far
+  int keyDictionarySize() {
+    return dictSize;
+  }
+
+  // Number of bytes consumed from the start of the input
+  public long position() {
+    return in.position();
+  }
 
-    final int MAX_BUFFER_SIZE = 4096;
-    int numToRead = (int) Math.min(MAX_BUFFER_SIZE, totSize);
-    byte[] skipBuf = new byte[numToRead];
-    while(totSize > 0) {
-      readNumBytes(skipBuf, numToRead);
-      totSize -= numToRead;
-      numToRead = (int) Math.min(MAX_BUFFER_SIZE, totSize);
+  public void position(long newPosition) throws IOException {
+    in.position(newPosition);
+  }
+
+  public void setIndex(LeonIndex index) {
+    this.index = index;
+  }
+
+  /*
+    Moves to the start of the n-th top-level object using the index set with
+    setIndex or, for an unpacker opened from a path, the sidecar index file
+    written by the packer.
+  */
+  public void seek(long n) throws IOException {
+    if(index == null) {
+      if(path == null) {
+        throw new IllegalStateException("No index available");
+      }
+      index = LeonIndex.load(path).check(LeonPacker.HEADER_SIZE, new File(path).length());
     }
+    position(index.offset(n));
   }
 
   public boolean unpackBooleanWithTag(int tag) {
@@ -116,7 +231,7 @@ public final class LeonUnpacker implements Closeable {
     if(!Tags.isFloat(tag)) {
       throw new LeonException("Expecting a float in input stream", UnableToUnpackObj);
     }
-    int bits = readLE32Int();
+    int bits = in.readLE32Int();
     return Float.intBitsToFloat(bits);
   }
 
@@ -128,9 +243,7 @@ public final class LeonUnpacker implements Closeable {
     if(!Tags.isDouble(tag)) {
       throw new LeonException("Expecting a double in input stream", UnableToUnpackObj);
     }
-    long bits_low = readLE32Int() & 0x00000000FFFFFFFFL;
-    long bits_high = readLE32Int();
-    long bits = (bits_high << 32) | bits_low;
+    long bits = in.readLE64Int();
     return Double.longBitsToDouble(bits);
   }
 
@@ -145,39 +258,44 @@ public final class LeonUnpacker implements Closeable {
   */
 
   public long unpackIntWithTag(int tag) throws IOException {
-    long n, y, b, x;
-    boolean eof = tag == -1;
+    if(tag == -1) {
+      throw LeonInput.endOfInput();
+    }
     if(!Tags.isInt(tag)) {
       throw new LeonException("Expecting an integer in input stream", UnableToUnpackObj);
     }
-    n = 0;
-    y = 0;
-    b = tag;
-    while(!eof && b >= 0x40) {
-      y += ((b - 0x80) << n);
-      n += 7;
-      b = in.read();
-      eof = b == -1;
-    }
-    if(eof) {
-      throw new LeonException("Unexpected end of input reached", UnableToUnpackObj);
-    }
-    // sign extend the last 6 bits payload, where the 6th bit is the sign
-    b = (b & 0x1F) - (b & 0x20);
-    x = y + (b << n);
-    return x;
+    if(tag < 0x40) {
+      // sign extend the 6 bits payload, where the 6th bit is the sign
+      return (tag & 0x1F) - (tag & 0x20);
+    }
+    if(tag == Tags.FIXED_INT64_TAG) {
+      return in.readLE64Int();
+    }
+    return in.readIntTail(tag);
   }
 
   public long unpackInt() throws IOException {
     return unpackIntWithTag(in.read());
   }
 
+  // An integer in [min, max], for fields narrower than 64 bits
+  public long unpackIntWithTag(int tag, long min, long max) throws IOException {
+    long x = unpackIntWithTag(tag);
+    if(x < min || x > max) {
+      throw new LeonException("Integer " + x + " out of range [" + min + ", " + max + "]", UnableToUnpackObj);
+    }
+    return x;
+  }
+
 
   public String unpackStringWithTag(int tag) throws IOException {
     String str;
     int size;
     byte[] str_utf8;
 
+    if(tag == Tags.EXT_TAG) {
+      return unpackDictionaryString(in.read());
+    }
     if(!Tags.isString(tag)) {
       throw new LeonException("Expecting a string in input stream", UnableToUnpackObj);
     }
@@ -186,12 +304,144 @@ public final class LeonUnpacker implements Closeable {
       //TODO support long, array.length is a int
       size = (int) unpackInt();
     }
+    if(stringCache != null && size <= scratch.length) {
+      in.readFully(scratch, 0, size);
+      return stringCache.get(scratch, 0, size);
+    }
     str_utf8 = new byte[size];
-    readNumBytes(str_utf8, size);
+    in.readFully(str_utf8, 0, size);
     str = new String(str_utf8, StandardCharsets.UTF_8);
     return str;
   }
 
+  // Consumes a string and compares it to the given UTF-8 bytes without decoding it
+  boolean unpackStringEqualsWithTag(int tag, byte[] utf8) throws IOException {
+    if(tag == Tags.EXT_TAG) {
+      return Arrays.equals(utf8, unpackExtensionUtf8());
+    }
+    long size = unpackStringSizeForMatch(tag);
+    return size == utf8.length ? matches(in.readSlice(utf8.length), utf8) : skipString(size);
+  }
+
+  /*
+    Consumes an object and returns the index of the first candidate, given
+    as UTF-8 bytes, equal to it or -1 if none is or the object is not a
+    string. The string is not decoded.
+  */
+  public int unpackStringIndexWithTag(int tag, byte[][] candidates) throws IOException {
+    if(tag == Tags.EXT_TAG) {
+      byte[] utf8 = unpackExtensionUtf8();
+      for(int i = 0; utf8 != null && i < candidates.length; i++) {
+        if(Arrays.equals(utf8, candidates[i])) {
+          return i;
+        }
+      }
+      return -1;
+    }
+    if(!Tags.isString(tag)) {
+      skipObject(tag);
+      return -1;
+    }
+    long size = unpackStringSizeForMatch(tag);
+    if(size > Integer.MAX_VALUE - 8) {
+      skipString(size);
+      return -1;
+    }
+    ByteBuffer str = null;
+    for(int i = 0; i < candidates.length; i++) {
+      if(candidates[i].length == size) {
+        if(str == null) {
+          str = in.readSlice((int) size);
+        }
+        if(matches(str, candidates[i])) {
+          return i;
+        }
+      }
+    }
+    if(str == null) {
+      skipString(size);
+    }
+    return -1;
+  }
+
+  // The UTF-8 bytes of a dictionary key, other extensions are skipped
+  private byte[] unpackExtensionUtf8() throws IOException {
+    int extType = in.read();
+    if(Tags.isDictionaryEntry(extType)) {
+      int id = unpackDictionaryEntry(extType);
+      return dictUtf8[id];
+    }
+    skipExtension(extType);
+    return null;
+  }
+
+  String unpackDictionaryString(int extType) throws IOException {
+    if(!Tags.isDictionaryEntry(extType)) {
+      throw new LeonException("Expecting a string in input stream", UnableToUnpackObj);
+    }
+    int id = unpackDictionaryEntry(extType);
+    return dictStrings[id];
+  }
+
+  /*
+    Reads the id of a key definition or reference and returns it, a
+    definition also reads its string. Ids are assigned in order, so a
+    definition can only replace a key or add the next one.
+  */
+  private int unpackDictionaryEntry(int extType) throws IOException {
+    long id = unpackInt();
+    if(id < 0 || id > dictSize || (extType == Tags.EXT_DICT_REF && id == dictSize)) {
+      throw new LeonException("Undefined key dictionary id " + id
+        + ", a stream with a key dictionary must be decoded sequentially from its start", UnableToUnpackObj);
+    }
+    if(extType == Tags.EXT_DICT_REF) {
+      return (int) id;
+    }
+    int tag = in.read();
+    long size = unpackStringSizeForMatch(tag);
+    if(size > Integer.MAX_VALUE - 8) {
+      throw new LeonException("Key too large", UnableToUnpackObj);
+    }
+    byte[] utf8 = new byte[(int) size];
+    in.readFully(utf8, 0, utf8.length);
+    if(id == dictSize) {
+      if(dictStrings == null || dictSize == dictStrings.length) {
+        int capacity = dictStrings == null ? 64 : dictSize * 2;
+        dictStrings = dictStrings == null ? new String[capacity] : Arrays.copyOf(dictStrings, capacity);
+        dictUtf8 = dictUtf8 == null ? new byte[capacity][] : Arrays.copyOf(dictUtf8, capacity);
+      }
+      dictSize++;
+    }
+    dictStrings[(int) id] = new String(utf8, StandardCharsets.UTF_8);
+    dictUtf8[(int) id] = utf8;
+    return (int) id;
+  }
+
+  private long unpackStringSizeForMatch(int tag) throws IOException {
+    if(!Tags.isString(tag)) {
+      throw new LeonException("Expecting a string in input stream", UnableToUnpackObj);
+    }
+    long size = tag & Tags.MASK_SIZE_SMALL_STR;
+    if(size == 0) { // big string
+      size = unpackInt();
+    }
+    return size;
+  }
+
+  private boolean skipString(long size) throws IOException {
+    in.skip(size);
+    return false;
+  }
+
+  private static boolean matches(ByteBuffer str, byte[] utf8) {
+    for(int i = 0; i < utf8.length; i++) {
+      if(str.get(i) != utf8[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   public String unpackString() throws IOException {
     return unpackStringWithTag(in.read());
   }
@@ -233,6 +483,202 @@ public final class LeonUnpacker implements Closeable {
   }
 
 
+  /*
+    The primitive array methods read a list of numbers without boxing. The
+    reuse array is filled and returned when its length matches the length of
+    the list, otherwise a new array is allocated.
+  */
+  private int unpackArrayLengthWithTag(int tag) throws IOException {
+    long length = unpackListLengthWithTag(tag);
+    if(length > Integer.MAX_VALUE - 8) {
+      throw new LeonException("List too long for an array", UnableToUnpackObj);
+    }
+    return (int) length;
+  }
+
+  public long[] unpackLongArrayWithTag(int tag, long[] reuse) throws IOException {
+    if(Tags.isExtension(tag)) {
+      int length = unpackTypedArrayLength(Tags.EXT_ARRAY_INT64);
+      return readTypedArray(reuse != null && reuse.length == length ? reuse : new long[length]);
+    }
+    int length = unpackArrayLengthWithTag(tag);
+    long[] array = reuse != null && reuse.length == length ? reuse : new long[length];
+    for(int i = 0; i < length; i++) {
+      array[i] = unpackIntWithTag(in.read());
+    }
+    return array;
+  }
+
+  public long[] unpackLongArray(long[] reuse) throws IOException {
+    return unpackLongArrayWithTag(in.read(), reuse);
+  }
+
+  public int[] unpackIntArrayWithTag(int tag, int[] reuse) throws IOException {
+    if(Tags.isExtension(tag)) {
+      int length = unpackTypedArrayLength(Tags.EXT_ARRAY_INT32);
+      return readTypedArray(reuse != null && reuse.length == length ? reuse : new int[length]);
+    }
+    int length = unpackArrayLengthWithTag(tag);
+    int[] array = reuse != null && reuse.length == length ? reuse : new int[length];
+    for(int i = 0; i < length; i++) {
+      long x = unpackIntWithTag(in.read());
+      if(x < Integer.MIN_VALUE || x > Integer.MAX_VALUE) {
+        throw new LeonException("Integer out of range for an int array", UnableToUnpackObj);
+      }
+      array[i] = (int) x;
+    }
+    return array;
+  }
+
+  public int[] unpackIntArray(int[] reuse) throws IOException {
+    return unpackIntArrayWithTag(in.read(), reuse);
+  }
+
+  public double[] unpackDoubleArrayWithTag(int tag, double[] reuse) throws IOException {
+    if(Tags.isExtension(tag)) {
+      int length = unpackTypedArrayLength(Tags.EXT_ARRAY_FLOAT64);
+      return readTypedArray(reuse != null && reuse.length == length ? reuse : new double[length]);
+    }
+    int length = unpackArrayLengthWithTag(tag);
+    double[] array = reuse != null && reuse.length == length ? reuse : new double[length];
+    for(int i = 0; i < length; i++) {
+      array[i] = unpackDoubleWithTag(in.read());
+    }
+    return array;
+  }
+
+  public double[] unpackDoubleArray(double[] reuse) throws IOException {
+    return unpackDoubleArrayWithTag(in.read(), reuse);
+  }
+
+  public float[] unpackFloatArrayWithTag(int tag, float[] reuse) throws IOException {
+    if(Tags.isExtension(tag)) {
+      int length = unpackTypedArrayLength(Tags.EXT_ARRAY_FLOAT32);
+      return readTypedArray(reuse != null && reuse.length == length ? reuse : new float[length]);
+    }
+    int length = unpackArrayLengthWithTag(tag);
+    float[] array = reuse != null && reuse.length == length ? reuse : new float[length];
+    for(int i = 0; i < length; i++) {
+      array[i] = unpackFloatWithTag(in.read());
+    }
+    return array;
+  }
+
+  public float[] unpackFloatArray(float[] reuse) throws IOException {
+    return unpackFloatArrayWithTag(in.read(), reuse);
+  }
+
+  private int unpackTypedArrayLength(int extType) throws IOException {
+    if(in.read() != extType) {
+      throw new LeonException("Expecting a typed array of a different element type", UnableToUnpackObj);
+    }
+    return unpackTypedArrayLength();
+  }
+
+  private int unpackTypedArrayLength() throws IOException {
+    long length = unpackInt();
+    if(length < 0 || length > Integer.MAX_VALUE - 8) {
+      throw new LeonException("Invalid typed array length", UnableToUnpackObj);
+    }
+    return (int) length;
+  }
+
+  private static final int TYPED_ARRAY_CHUNK = 4096;
+
+  private long[] readTypedArray(long[] array) throws IOException {
+    for(int i = 0; i < array.length; ) {
+      int n = Math.min(array.length - i, TYPED_ARRAY_CHUNK);
+      in.readSlice(n * 8).asLongBuffer().get(array, i, n);
+      i += n;
+    }
+    return array;
+  }
+
+  private int[] readTypedArray(int[] array) throws IOException {
+    for(int i = 0; i < array.length; ) {
+      int n = Math.min(array.length - i, TYPED_ARRAY_CHUNK);
+      in.readSlice(n * 4).asIntBuffer().get(array, i, n);
+      i += n;
+    }
+    return array;
+  }
+
+  private double[] readTypedArray(double[] array) throws IOException {
+    for(int i = 0; i < array.length; ) {
+      int n = Math.min(array.length - i, TYPED_ARRAY_CHUNK);
+      in.readSlice(n * 8).asDoubleBuffer().get(array, i, n);
+      i += n;
+    }
+    return array;
+  }
+
+  private float[] readTypedArray(float[] array) throws IOException {
+    for(int i = 0; i < array.length; ) {
+      int n = Math.min(array.length - i, TYPED_ARRAY_CHUNK);
+      in.readSlice(n * 4).asFloatBuffer().get(array, i, n);
+      i += n;
+    }
+    return array;
+  }
+
+  int unpackExtensionType() throws IOException {
+    return in.read();
+  }
+
+  Object unpackExtension(int extType) throws IOException {
+    switch(extType) {
+      case Tags.EXT_ARRAY_INT32:
+        return readTypedArray(new int[unpackTypedArrayLength()]);
+      case Tags.EXT_ARRAY_INT64:
+        return readTypedArray(new long[unpackTypedArrayLength()]);
+      case Tags.EXT_ARRAY_FLOAT32:
+        return readTypedArray(new float[unpackTypedArrayLength()]);
+      case Tags.EXT_ARRAY_FLOAT64:
+        return readTypedArray(new double[unpackTypedArrayLength()]);
+      case Tags.EXT_DICT_DEF:
+      case Tags.EXT_DICT_REF:
+        return unpackDictionaryString(extType);
+      case Tags.EXT_CUSTOM:
+        long typeId = unpackInt();
+        LeonCodec<?> codec = typeId == (int) typeId ? registry.decoder((int) typeId) : null;
+        if(codec == null) {
+          throw new LeonException("No codec registered for extension type id " + typeId, UnableToUnpackObj);
+        }
+        return codec.unpack(this);
+      default:
+        throw unknownExtension(extType);
+    }
+  }
+
+  // Custom extensions are skipped without their codec, key definitions are
+  // still recorded
+  void skipExtension(int extType) throws IOException {
+    switch(extType) {
+      case Tags.EXT_DICT_DEF:
+        unpackDictionaryEntry(extType);
+        return;
+      case Tags.EXT_DICT_REF:
+        unpackInt();
+        return;
+      case Tags.EXT_CUSTOM:
+        unpackInt();
+        skipObject(nextTag());
+        return;
+    }
+    int width = Tags.arrayElementSize(extType);
+    if(width == 0) {
+      throw unknownExtension(extType);
+    }
+    in.skip(unpackTypedArrayLength() * (long) width);
+  }
+
+  private static LeonException unknownExtension(int extType) {
+    if(extType == -1) {
+      return LeonInput.endOfInput();
+    }
+    return new LeonException("Unknown extension type " + extType, LeonException.Reason.InvalidTag);
+  }
+
   public long unpackBytesSizeWithTag(int tag) throws IOException {
     long size;
 
@@ -245,7 +691,7 @@ public final class LeonUnpacker implements Closeable {
   }
 
   public void unpackRawBytes(byte[] bytes) throws IOException {
-    readNumBytes(bytes, bytes.length);
+    in.readFully(bytes, 0, bytes.length);
   }
 
   public byte[] unpackBytesWithTag(int tag) throws IOException {
@@ -259,7 +705,7 @@ public final class LeonUnpacker implements Closeable {
       throw new LeonException("Expecting bytes in input stream", UnableToUnpackObj);
     }
     bytes = new byte[size];
-    readNumBytes(bytes, size);
+    in.readFully(bytes, 0, size);
     return bytes;
   }
 
@@ -267,6 +713,68 @@ public final class LeonUnpacker implements Closeable {
     return unpackBytesWithTag(in.read());
   }
 
+  private int bytesSize(int tag) throws IOException {
+    long size = unpackBytesSizeWithTag(tag);
+    if(size < 0 || size > Integer.MAX_VALUE - 8) {
+      throw new LeonException("Invalid bytes size " + size, UnableToUnpackObj);
+    }
+    return (int) size;
+  }
+
+  // Copies the content into dst from its position, which is advanced, and
+  // returns its size. A value larger than dst is skipped and an exception thrown.
+  public int unpackBytesIntoWithTag(int tag, ByteBuffer dst) throws IOException {
+    int size = bytesSize(tag);
+    if(dst.remaining() < size) {
+      in.skip(size);
+      throw new LeonException("Bytes value of size " + size + " larger than the " + dst.remaining() + " bytes left in the buffer", UnableToUnpackObj);
+    }
+    in.readFully(dst, size);
+    return size;
+  }
+
+  public int unpackBytesInto(ByteBuffer dst) throws IOException {
+    return unpackBytesIntoWithTag(in.read(), dst);
+  }
+
+  /*
+    The content without copying it when decoding from an array, a buffer or
+    a mapped file: the slice shares their memory and must not be modified.
+    From a stream or a channel the content is read into a buffer owned by
+    the unpacker, valid until the next read.
+  */
+  public ByteBuffer unpackBytesSliceWithTag(int tag) throws IOException {
+    return in.readSlice(bytesSize(tag));
+  }
+
+  public ByteBuffer unpackBytesSlice() throws IOException {
+    return unpackBytesSliceWithTag(in.read());
+  }
+
+  /*
+    The content in a buffer borrowed from the buffer pool, ready to be read.
+    The caller owns it and gives it back with LeonBufferPool.release. Without
+    a pool the buffer is allocated on the heap.
+  */
+  public ByteBuffer unpackPooledBytesWithTag(int tag) throws IOException {
+    int size = bytesSize(tag);
+    ByteBuffer buf = bufferPool == null ? ByteBuffer.allocate(size) : bufferPool.acquire(size);
+    try {
+      in.readFully(buf, size);
+    } catch(IOException | RuntimeException e) {
+      if(bufferPool != null) {
+        bufferPool.release(buf);
+      }
+      throw e;
+    }
+    buf.flip();
+    return buf;
+  }
+
+  public ByteBuffer unpackPooledBytes() throws IOException {
+    return unpackPooledBytesWithTag(in.read());
+  }
+
   public long unpackMapSizeWithTag(int tag) throws IOException {
     long size;
 
@@ -304,96 +812,110 @@ public final class LeonUnpacker implements Closeable {
     return unpackMapWithTag(in.read());
   }
 
-  public Object unpackObject() throws IOException {
-    Object obj;
-    int tag = in.read();
-    if(Tags.isInt(tag)) {
-      obj = unpackIntWithTag(tag);
-    } else if(Tags.isFloat(tag)) {
-      obj = unpackFloatWithTag(tag);
-    } else if(Tags.isDouble(tag)) {
-      obj = unpackDoubleWithTag(tag);
-    } else if(Tags.isNull(tag)) {
-      obj = null;
-    } else if(tag == Tags.TRUE) {
-      obj = true;
-    } else if(tag == Tags.FALSE) {
-      obj = false;
-    } else if(Tags.isString(tag)) {
-      obj = unpackStringWithTag(tag);
-    } else if(Tags.isList(tag)) {
-      obj = unpackListWithTag(tag);
-    } else if(Tags.isMap(tag)) {
-      obj = unpackMapWithTag(tag);
-    } else if(Tags.isBytes(tag)) {
-      obj = unpackBytesWithTag(tag);
-    } else {
-      throw new LeonException("Unable to unpack object", UnableToUnpackObj);
+  public Object unpackObjectWithTag(int tag) throws IOException {
+    switch(Tags.kind(tag)) {
+      case Tags.KIND_INT:
+        return unpackIntWithTag(tag);
+      case Tags.KIND_NULL:
+        return null;
+      case Tags.KIND_TRUE:
+        return true;
+      case Tags.KIND_FALSE:
+        return false;
+      case Tags.KIND_FLOAT:
+        return Float.intBitsToFloat(in.readLE32Int());
+      case Tags.KIND_DOUBLE:
+        return Double.longBitsToDouble(in.readLE64Int());
+      case Tags.KIND_STRING:
+        return unpackStringWithTag(tag);
+      case Tags.KIND_LIST:
+        return unpackListWithTag(tag);
+      case Tags.KIND_MAP:
+        return unpackMapWithTag(tag);
+      case Tags.KIND_BYTES:
+        return unpackBytesWithTag(tag);
+      case Tags.KIND_EXT:
+        return unpackExtension(in.read());
+      case Tags.KIND_EOF:
+        throw LeonInput.endOfInput();
+      default:
+        throw new LeonException("Unable to unpack object", UnableToUnpackObj);
     }
-    return obj;
+  }
+
+  public Object unpackObject() throws IOException {
+    return unpackObjectWithTag(in.read());
   }
 
   public int nextTag() throws IOException {
     int tag = in.read();
-    if(tag == -1) {
-      tag = Tags.EOF;
-    } else if(!Tags.isValidTag(tag)) {
+    if(Tags.kind(tag) == Tags.KIND_INVALID) {
       throw new LeonException("Unable to get a valid tag, input stream corrupted or not at a tag boundary", LeonException.Reason.InvalidTag);
     }
     return tag;
   }
 
   public void skipObject(int tag) throws IOException {
-    if(tag == Tags.EOF) {
-      return;
-    }
-    if(!Tags.isValidTag(tag)) {
-      throw new LeonException("Invalid tag", LeonException.Reason.InvalidTag);
-    }
-    if(Tags.isInt(tag)) {
-      int b;
-      boolean eof = false;
-      b = tag;
-      while(!eof && b >= 0x80) {
-        b = in.read();
-        eof = b == -1;
-      }
-    } else if(Tags.isFloat(tag)) {
-      readLE32Int();
-    } else if(Tags.isDouble(tag)) {
-      readLE32Int();
-      readLE32Int();
-    } else if(Tags.isNull(tag) || Tags.isBoolean(tag)) {
-      // nothing to do
-    } else if(Tags.isString(tag)) {
-      long size = tag & Tags.MASK_SIZE_SMALL_STR;
-      if(size == 0) { // big string
-        size = unpackInt();
-      }
-      skipAllBytes(size);
-    } else if(Tags.isList(tag)) {
-      long length = tag & Tags.MASK_LENGTH_SMALL_LIST;
-      if(length == 0) { // big list
-        length = unpackInt();
-      }
-      while(length > 0) {
-        skipObject(nextTag());
-        length--;
-      }
-    } else if(Tags.isMap(tag)) {
-      long size = tag & Tags.MASK_SIZE_SMALL_MAP;
-      if(size == 0) { // big map
-        size = unpackInt();
-      }
-      size = size * 2;
-      while(size > 0) {
-        skipObject(nextTag());
-        size--;
-      }
-    } else if(Tags.isBytes(tag)) {
-      skipAllBytes(unpackInt());
-    } else {
-      throw new LeonException("Internal error valid tag not handled", LeonException.Reason.InternalError);
+    long size;
+    switch(Tags.kind(tag)) {
+      case Tags.KIND_EOF:
+        return;
+      case Tags.KIND_INT:
+        if(tag == Tags.FIXED_INT64_TAG) {
+          in.skip(8);
+          return;
+        }
+        int b = tag;
+        while(b >= 0x80) {
+          b = in.read();
+        }
+        return;
+      case Tags.KIND_NULL:
+      case Tags.KIND_TRUE:
+      case Tags.KIND_FALSE:
+        return;
+      case Tags.KIND_FLOAT:
+        in.readLE32Int();
+        return;
+      case Tags.KIND_DOUBLE:
+        in.readLE64Int();
+        return;
+      case Tags.KIND_STRING:
+        size = Tags.smallLength(tag);
+        if(size == 0) { // big string
+          size = unpackInt();
+        }
+        in.skip(size);
+        return;
+      case Tags.KIND_BYTES:
+        in.skip(unpackInt());
+        return;
+      case Tags.KIND_EXT:
+        skipExtension(in.read());
+        return;
+      case Tags.KIND_LIST:
+        size = Tags.smallLength(tag);
+        if(size == 0) { // big list
+          size = unpackInt();
+        }
+        while(size > 0) {
+          skipObject(nextTag());
+          size--;
+        }
+        return;
+      case Tags.KIND_MAP:
+        size = Tags.smallLength(tag);
+        if(size == 0) { // big map
+          size = unpackInt();
+        }
+        size = size * 2;
+        while(size > 0) {
+          skipObject(nextTag());
+          size--;
+        }
+        return;
+      default:
+        throw new LeonException("Invalid tag", LeonException.Reason.InvalidTag);
     }
   }
 
@@ -0,0 +1,55 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/*
+  Lazily decoded, read-only views over an encoded object. Lists and maps are
+  returned as LeonList and LeonMap which decode their children on first
+  access, every other value is decoded as unpackObject does. The views share
+  one unpacker over the buffer: they are not thread-safe and the buffer must
+  not change while they are in use.
+*/
+public final class LeonValue {
+  private LeonValue() {
+  }
+
+  public static Object view(byte[] bytes) throws IOException {
+    return read(new LeonUnpacker(bytes));
+  }
+
+  public static Object view(ByteBuffer buffer) throws IOException {
+    return read(new LeonUnpacker(buffer));
+  }
+
+  static Object read(LeonUnpacker unpacker) throws IOException {
+    int tag = unpacker.nextTag();
+    switch(Tags.kind(tag)) {
+      case Tags.KIND_LIST:
+        return new LeonList(unpacker, checkSize(unpacker.unpackListLengthWithTag(tag)), unpacker.position());
+      case Tags.KIND_MAP:
+        return new LeonMap(unpacker, checkSize(unpacker.unpackMapSizeWithTag(tag)), unpacker.position());
+      default:
+        return unpacker.unpackObjectWithTag(tag);
+    }
+  }
+
+  private static int checkSize(long size) {
+    if(size > Integer.MAX_VALUE - 8) {
+      throw new LeonException("Container too large for a view", LeonException.Reason.UnableToUnpackObj);
+    }
+    return (int) size;
+  }
+
+  static LeonException ioFailure(IOException e) {
+    LeonException ex = new LeonException("Unable to read view: " + e.getMessage(), LeonException.Reason.UnableToUnpackObj);
+    ex.initCause(e);
+    return ex;
+  }
+}
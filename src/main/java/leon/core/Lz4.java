@@ -0,0 +1,180 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.core;
+
+/*
+  Compressor and decompressor for the LZ4 block format. A block is a
+  sequence of literal runs followed by a match, a 16 bits little endian
+  offset back into the output and a length. The compressor is a greedy
+  single pass over a hash table of 4 bytes sequences, trading ratio for
+  speed like the reference LZ4 fast mode.
+*/
+final class Lz4 {
+  private Lz4() {
+  }
+
+  static final int HASH_LOG = 12;
+  private static final int MIN_MATCH = 4;
+  private static final int MAX_OFFSET = 65535;
+  // The last match must start at least 12 bytes before the end of the
+  // input and the last 5 bytes are always literals.
+  private static final int MF_LIMIT = 12;
+  private static final int LAST_LITERALS = 5;
+
+  static int maxCompressedLength(int length) {
+    return length + length / 255 + 16;
+  }
+
+  private static int readInt(byte[] b, int i) {
+    return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+  }
+
+  private static int hash(int x) {
+    return (x * -1640531535) >>> (32 - HASH_LOG);
+  }
+
+  /*
+    Compresses src[srcOff, srcOff + srcLen) into dst at dstOff, which must
+    have room for maxCompressedLength(srcLen) bytes, and returns the
+    compressed size. table must have 1 << HASH_LOG entries, it can be reused
+    across calls without clearing it.
+  */
+  static int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int[] table) {
+    int srcEnd = srcOff + srcLen;
+    int anchor = srcOff;
+    int op = dstOff;
+    if(srcLen > MF_LIMIT) {
+      int mfLimit = srcEnd - MF_LIMIT;
+      int matchLimit = srcEnd - LAST_LITERALS;
+      int ip = srcOff + 1;
+      while(ip < mfLimit) {
+        int seq = readInt(src, ip);
+        int h = hash(seq);
+        int ref = table[h];
+        table[h] = ip;
+        // Entries left by previous calls are discarded by the range check
+        if(ref < srcOff || ref >= ip || ip - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+          ip += 1 + ((ip - anchor) >>> 6);
+          continue;
+        }
+        while(ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+          ip--;
+          ref--;
+        }
+        int length = MIN_MATCH;
+        while(ip + length < matchLimit && src[ip + length] == src[ref + length]) {
+          length++;
+        }
+        op = writeSequence(dst, op, src, anchor, ip - anchor, ip - ref, length);
+        ip += length;
+        anchor = ip;
+        if(ip < mfLimit) {
+          table[hash(readInt(src, ip - 2))] = ip - 2;
+        }
+      }
+    }
+    return writeSequence(dst, op, src, anchor, srcEnd - anchor, 0, 0) - dstOff;
+  }
+
+  // A match length of 0 writes the final sequence, made of literals only
+  private static int writeSequence(byte[] dst, int op, byte[] src, int literals, int numLiterals, int offset, int length) {
+    int token = op++;
+    int match = length == 0 ? 0 : length - MIN_MATCH;
+    dst[token] = (byte) ((Math.min(numLiterals, 15) << 4) | Math.min(match, 15));
+    op = writeLength(dst, op, numLiterals);
+    System.arraycopy(src, literals, dst, op, numLiterals);
+    op += numLiterals;
+    if(length != 0) {
+      dst[op++] = (byte) offset;
+      dst[op++] = (byte) (offset >>> 8);
+      op = writeLength(dst, op, match);
+    }
+    return op;
+  }
+
+  private static int writeLength(byte[] dst, int op, int length) {
+    if(length >= 15) {
+      length -= 15;
+      while(length >= 255) {
+        dst[op++] = (byte) 255;
+        length -= 255;
+      }
+      dst[op++] = (byte) length;
+    }
+    return op;
+  }
+
+  // Decompresses exactly dstLen bytes, a malformed block throws LeonException
+  static void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen) {
+    int ip = srcOff;
+    int srcEnd = srcOff + srcLen;
+    int op = dstOff;
+    int dstEnd = dstOff + dstLen;
+    while(true) {
+      if(ip >= srcEnd) {
+        throw corrupted();
+      }
+      int token = src[ip++] & 0xFF;
+      int numLiterals = token >>> 4;
+      if(numLiterals == 15) {
+        int b;
+        do {
+          if(ip >= srcEnd) {
+            throw corrupted();
+          }
+          b = src[ip++] & 0xFF;
+          numLiterals += b;
+        } while(b == 255 && numLiterals <= dstLen);
+      }
+      if(numLiterals > srcEnd - ip || numLiterals > dstEnd - op) {
+        throw corrupted();
+      }
+      System.arraycopy(src, ip, dst, op, numLiterals);
+      ip += numLiterals;
+      op += numLiterals;
+      if(ip == srcEnd) {
+        break;
+      }
+      if(srcEnd - ip < 2) {
+        throw corrupted();
+      }
+      int offset = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+      ip += 2;
+      int length = token & 0xF;
+      if(length == 15) {
+        int b;
+        do {
+          if(ip >= srcEnd) {
+            throw corrupted();
+          }
+          b = src[ip++] & 0xFF;
+          length += b;
+        } while(b == 255 && length <= dstLen);
+      }
+      length += MIN_MATCH;
+      int ref = op - offset;
+      if(offset == 0 || ref < dstOff || length > dstEnd - op) {
+        throw corrupted();
+      }
+      if(offset >= length) {
+        System.arraycopy(dst, ref, dst, op, length);
+        op += length;
+      } else { // overlapping match, repeats the last offset bytes
+        for(int i = 0; i < length; i++) {
+          dst[op++] = dst[ref + i];
+        }
+      }
+    }
+    if(op != dstEnd) {
+      throw corrupted();
+    }
+  }
+
+  private static LeonException corrupted() {
+    return new LeonException("Corrupted compressed block", LeonException.Reason.UnableToUnpackObj);
+  }
+}
@@ -22,6 +22,18 @@ public final class Tags {
   public static final int FLOAT_TAG = 0x43;
   public static final int DOUBLE_TAG = 0x44;
   public static final int BYTES_TAG = 0x45;
+  // 64 bits little endian two's complement integer
+  public static final int FIXED_INT64_TAG = 0x47;
+
+  // An extension tag is followed by one byte giving the type of extension
+  public static final int EXT_TAG = 0x46;
+  public static final int EXT_ARRAY_INT32 = 0x01;
+  public static final int EXT_ARRAY_INT64 = 0x02;
+  public static final int EXT_ARRAY_FLOAT32 = 0x03;
+  public static final int EXT_ARRAY_FLOAT64 = 0x04;
+  public static final int EXT_DICT_DEF = 0x10;
+  public static final int EXT_DICT_REF = 0x11;
+  public static final int EXT_CUSTOM = 0x20;
 
   public static final int MAP_TAG = 0x48;
   public static final int MAX_SIZE_SMALL_MAP = 7;
@@ -38,44 +50,141 @@ public final class Tags {
   private static final int MASK_STR_TAG = 0xE0;
   public static final int MASK_SIZE_SMALL_STR = 0x1F;
 
+  public static final int KIND_INVALID = 0;
+  public static final int KIND_EOF = 1;
+  public static final int KIND_INT = 2;
+  public static final int KIND_NULL = 3;
+  public static final int KIND_TRUE = 4;
+  public static final int KIND_FALSE = 5;
+  public static final int KIND_FLOAT = 6;
+  public static final int KIND_DOUBLE = 7;
+  public static final int KIND_BYTES = 8;
+  public static final int KIND_MAP = 9;
+  public static final int KIND_LIST = 10;
+  public static final int KIND_STRING = 11;
+  public static final int KIND_EXT = 12;
+
+  /*
+    One entry per tag value, EOF included at index 0: the kind of the tag in
+    the low 4 bits and the length of a small string, list or map in the high
+    bits (0 for the big variants).
+  */
+  private static final short[] TAG_INFO = new short[257];
+
+  static {
+    TAG_INFO[0] = KIND_EOF;
+    for(int tag = 0; tag < 256; tag++) {
+      int kind;
+      int length = 0;
+      if((tag & MASK_SMALL_INT) == SMALL_INT_TAG || (tag & MASK_INT) == INT_TAG || tag == FIXED_INT64_TAG) {
+        kind = KIND_INT;
+      } else if(tag == NULL) {
+        kind = KIND_NULL;
+      } else if(tag == TRUE) {
+        kind = KIND_TRUE;
+      } else if(tag == FALSE) {
+        kind = KIND_FALSE;
+      } else if(tag == FLOAT_TAG) {
+        kind = KIND_FLOAT;
+      } else if(tag == DOUBLE_TAG) {
+        kind = KIND_DOUBLE;
+      } else if(tag == BYTES_TAG) {
+        kind = KIND_BYTES;
+      } else if(tag == EXT_TAG) {
+        kind = KIND_EXT;
+      } else if((tag & MASK_MAP_TAG) == MAP_TAG) {
+        kind = KIND_MAP;
+        length = tag & MASK_SIZE_SMALL_MAP;
+      } else if((tag & MASK_LIST_TAG) == LIST_TAG) {
+        kind = KIND_LIST;
+        length = tag & MASK_LENGTH_SMALL_LIST;
+      } else if((tag & MASK_STR_TAG) == STR_TAG) {
+        kind = KIND_STRING;
+        length = tag & MASK_SIZE_SMALL_STR;
+      } else {
+        kind = KIND_INVALID;
+      }
+      TAG_INFO[tag + 1] = (short) (kind | (length << 4));
+    }
+  }
+
+  public static int kind(int tag) {
+    if((tag & ~0xFF) != 0) {
+      return tag == EOF ? KIND_EOF : KIND_INVALID;
+    }
+    return TAG_INFO[tag + 1] & 0xF;
+  }
+
+  // Length encoded in the tag of a small string, list or map, 0 otherwise
+  public static int smallLength(int tag) {
+    if((tag & ~0xFF) != 0) {
+      return 0;
+    }
+    return TAG_INFO[tag + 1] >> 4;
+  }
+
+  // Compatibility wrappers over the kind table
+
   public static boolean isInt(int tag) {
-    return (tag & MASK_SMALL_INT) == SMALL_INT_TAG || (tag & MASK_INT) == INT_TAG;
+    return kind(tag) == KIND_INT;
   }
 
   public static boolean isNull(int tag) {
-    return tag == NULL;
+    return kind(tag) == KIND_NULL;
   }
 
   public static boolean isBoolean(int tag) {
-    return tag == TRUE || tag == FALSE;
+    int kind = kind(tag);
+    return kind == KIND_TRUE || kind == KIND_FALSE;
   }
 
   public static boolean isFloat(int tag) {
-    return tag == FLOAT_TAG;
+    return kind(tag) == KIND_FLOAT;
   }
 
   public static boolean isDouble(int tag) {
-    return tag == DOUBLE_TAG;
+    return kind(tag) == KIND_DOUBLE;
   }
 
   public static boolean isList(int tag) {
-    return (tag & MASK_LIST_TAG) == LIST_TAG;
+    return kind(tag) == KIND_LIST;
   }
 
   public static boolean isString(int tag) {
-    return (tag & MASK_STR_TAG) == STR_TAG;
+    return kind(tag) == KIND_STRING;
   }
 
   public static boolean isBytes(int tag) {
-    return tag == BYTES_TAG;
+    return kind(tag) == KIND_BYTES;
+  }
+
+  public static boolean isExtension(int tag) {
+    return kind(tag) == KIND_EXT;
+  }
+
+  // Size in bytes of an element of a typed array, 0 for other extensions
+  public static int arrayElementSize(int extType) {
+    switch(extType) {
+      case EXT_ARRAY_INT32:
+      case EXT_ARRAY_FLOAT32:
+        return 4;
+      case EXT_ARRAY_INT64:
+      case EXT_ARRAY_FLOAT64:
+        return 8;
+      default:
+        return 0;
+    }
+  }
+
+  public static boolean isDictionaryEntry(int extType) {
+    return extType == EXT_DICT_DEF || extType == EXT_DICT_REF;
   }
 
   public static boolean isMap(int tag) {
-    return (tag & MASK_MAP_TAG) == MAP_TAG;
+    return kind(tag) == KIND_MAP;
   }
 
   public static boolean isValidTag(int tag) {
-    return isInt(tag) || isNull(tag) || isBoolean(tag) || isFloat(tag) || isDouble(tag) || isList(tag) || isString(tag) || isBytes(tag) || isMap(tag);
-
+    return kind(tag) > KIND_EOF;
   }
 }
@@ -5,18 +5,61 @@
 */
 
 import junit.framework.TestCase;
+import leon.codegen.LeonProcessor;
+import leon.codegen.LeonSerializable;
+import leon.core.LeonBlockReader;
+import leon.core.LeonBufferPool;
+import leon.core.LeonBlockWriter;
+import leon.core.LeonCodec;
+import leon.core.LeonException;
+import leon.core.LeonFrameReader;
+import leon.core.LeonFrameWriter;
+import leon.core.LeonIndex;
 import leon.core.LeonPacker;
+import leon.core.LeonParallelReader;
+import leon.core.LeonList;
+import leon.core.LeonMap;
+import leon.core.LeonPath;
+import leon.core.LeonPool;
+import leon.core.LeonPushDecoder;
+import leon.core.LeonValue;
+import leon.core.LeonReader;
+import leon.core.LeonRegistry;
+import leon.core.LeonSizer;
+import leon.core.LeonStringCache;
 import leon.core.LeonUnpacker;
 import leon.core.Tags;
 import leon.core.ToLeon;
 
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Collectors;
 
 public class CoreTest extends TestCase {
 
@@ -253,10 +296,1330 @@ public class CoreTest extends TestCase {
     deleteFile(out_bin);
   }
 
+  public void testBufferPacker() throws IOException {
+    String out_bin = "out/testBufferPacker.leon";
+    Map<Object, Object> map = new HashMap<>();
+    map.put("key", Arrays.asList(-741L, 1.5f, "value"));
+    map.put(0xCAFEBABEL, new byte[10000]);
+    LeonPacker pkr = new LeonPacker(out_bin);
+    pkr.packMap(map).packDouble(2.5).packString("END");
+    pkr.close();
+    byte[] expected = Files.readAllBytes(Paths.get(out_bin));
+    deleteFile(out_bin);
+
+    LeonPacker buf_pkr = new LeonPacker();
+    for(int i = 0; i < 3; i++) {
+      buf_pkr.reset();
+      buf_pkr.packHeader().packMap(map).packDouble(2.5).packString("END");
+      assertEquals(expected.length, buf_pkr.size());
+      assertTrue(Arrays.equals(expected, buf_pkr.toByteArray()));
+    }
+    assertEquals(ByteBuffer.wrap(expected), buf_pkr.asByteBuffer());
+
+    ByteBuffer direct = ByteBuffer.allocateDirect(expected.length);
+    LeonPacker bb_pkr = new LeonPacker(direct);
+    bb_pkr.packHeader().packMap(map).packDouble(2.5).packString("END");
+    bb_pkr.flush();
+    direct.flip();
+    assertEquals(ByteBuffer.wrap(expected), direct);
+
+    LeonUnpacker unpkr = new LeonUnpacker(new ByteArrayInputStream(buf_pkr.toByteArray()));
+    Map<Object, Object> dec_map = unpkr.unpackMap();
+    assertEquals(map.get("key"), dec_map.get("key"));
+    assertEquals(10000, ((byte[]) dec_map.get(0xCAFEBABEL)).length);
+    assertEquals(2.5, unpkr.unpackDouble());
+    assertEquals("END", unpkr.unpackString());
+    try {
+      unpkr.position(0);
+      fail();
+    } catch(LeonException e) {
+      assertEquals(LeonException.Reason.UnableToUnpackObj, e.reason());
+    }
+  }
+
+  public void testStreamPacker() throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    LeonPacker pkr = new LeonPacker(bos);
+    pkr.packInt(5);
+    assertEquals(1, bos.size());
+    pkr.packString("value").packList(Arrays.asList(1L, "x"));
+    assertEquals(1 + 6 + 4, bos.size());
+    pkr.packBytes(new byte[20000]);
+    assertEquals(pkr.position(), bos.size());
+    // deferred headers are only known at the end of the container
+    pkr.beginList().packInt(1);
+    assertEquals(pkr.position() - 12, bos.size());
+    pkr.endList();
+    assertEquals(pkr.position(), bos.size());
+
+    ByteArrayOutputStream buffered = new ByteArrayOutputStream();
+    LeonPacker buf_pkr = new LeonPacker(buffered, 64);
+    buf_pkr.packInt(5).packString("value").packList(Arrays.asList(1L, "x"));
+    assertEquals(0, buffered.size());
+    buf_pkr.packBytes(new byte[20000]);
+    buf_pkr.beginList().packInt(1).endList();
+    assertTrue(buffered.size() > 0 && buffered.size() < buf_pkr.position());
+    buf_pkr.flush();
+    assertTrue(Arrays.equals(bos.toByteArray(), buffered.toByteArray()));
+  }
+
+  public void testBufferUnpacker() throws IOException {
+    List<Object> list = Arrays.asList(-741L, 1.5f, 2.25, "value", null, true);
+    LeonPacker pkr = new LeonPacker();
+    pkr.packString("first").packList(list).packBytes(new byte[]{1, 2, 3}).packInt(Long.MIN_VALUE);
+    byte[] bytes = pkr.toByteArray();
+
+    byte[] framed = new byte[bytes.length + 4];
+    System.arraycopy(bytes, 0, framed, 2, bytes.length);
+    ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+    direct.put(bytes).flip();
+    LeonUnpacker[] unpackers = {
+      new LeonUnpacker(bytes),
+      new LeonUnpacker(framed, 2, bytes.length),
+      new LeonUnpacker(ByteBuffer.wrap(bytes)),
+      new LeonUnpacker(direct)
+    };
+    for(LeonUnpacker unpkr : unpackers) {
+      assertEquals("first", unpkr.unpackString());
+      long list_pos = unpkr.position();
+      assertEquals(list, unpkr.unpackList());
+      assertTrue(Arrays.equals(new byte[]{1, 2, 3}, unpkr.unpackBytes()));
+      assertEquals(Long.MIN_VALUE, unpkr.unpackInt());
+      assertEquals(bytes.length, unpkr.position());
+      assertEquals(Tags.EOF, unpkr.nextTag());
+      unpkr.position(list_pos);
+      assertEquals(list, unpkr.unpackList());
+    }
+    assertEquals(0, direct.position());
+
+    pkr.reset().packHeader().packString("with header");
+    LeonUnpacker unpkr = new LeonUnpacker(pkr.toByteArray());
+    unpkr.unpackHeader();
+    assertEquals(1, unpkr.major);
+    assertEquals("with header", unpkr.unpackString());
+  }
+
+  public void testMappedUnpacker() throws IOException {
+    String out_bin = "out/testMappedUnpacker.leon";
+    LeonPacker pkr = new LeonPacker(out_bin);
+    byte[] blob = new byte[1 << 20];
+    blob[blob.length - 1] = 42;
+    pkr.packBytes(blob).packString("after blob").packDouble(0.5).packBytes(blob).packInt(-1);
+    pkr.close();
+
+    LeonUnpacker unpkr = new LeonUnpacker(FileChannel.open(Paths.get(out_bin)));
+    assertEquals(1, unpkr.major);
+    unpkr.skipObject(unpkr.nextTag());
+    assertEquals("after blob", unpkr.unpackString());
+    assertEquals(0.5, unpkr.unpackDouble());
+    byte[] dec_blob = unpkr.unpackBytes();
+    assertEquals(42, dec_blob[dec_blob.length - 1]);
+    assertEquals(-1, unpkr.unpackInt());
+    assertEquals(Tags.EOF, unpkr.nextTag());
+    unpkr.close();
+    deleteFile(out_bin);
+  }
+
+  public void testUtf8Strings() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for(int i = 0; i < 5000; i++) {
+      sb.append("a\u00e9\u20ac\uD83D\uDE00");
+    }
+    String[] strs = {"", "ASCII only", "caf\u00e9", "\u20ac100", "\uD83D\uDE00 emoji",
+      "lone \uD800 high", "lone \uDC00 low", "end \uD800", sb.toString()};
+    for(String str : strs) {
+      byte[] expected = str.getBytes(StandardCharsets.UTF_8);
+      LeonPacker pkr = new LeonPacker();
+      pkr.packBytes(expected).packString(str);
+      LeonUnpacker unpkr = new LeonUnpacker(pkr.toByteArray());
+      unpkr.unpackBytes();
+      long str_pos = unpkr.position();
+      int tag = unpkr.nextTag();
+      long size = (tag & Tags.MASK_SIZE_SMALL_STR) == 0 ? unpkr.unpackInt() : tag & Tags.MASK_SIZE_SMALL_STR;
+      assertEquals(expected.length, size);
+      byte[] encoded = new byte[(int) size];
+      unpkr.unpackRawBytes(encoded);
+      assertTrue(Arrays.equals(expected, encoded));
+      unpkr.position(str_pos);
+      assertEquals(new String(expected, StandardCharsets.UTF_8), unpkr.unpackString());
+    }
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    LeonPacker pkr = new LeonPacker(bos);
+    pkr.packString(strs[strs.length - 1]).packString(strs[4]);
+    pkr.close();
+    LeonUnpacker unpkr = new LeonUnpacker(bos.toByteArray());
+    assertEquals(strs[strs.length - 1], unpkr.unpackString());
+    assertEquals(strs[4], unpkr.unpackString());
+  }
+
+  public void testStringCache() throws IOException {
+    LeonPacker pkr = new LeonPacker();
+    String long_str = "a string longer than thirty one bytes";
+    for(int i = 0; i < 10; i++) {
+      Map<Object, Object> map = new HashMap<>();
+      map.put("id", (long) i);
+      map.put("name", "record " + (i % 2));
+      map.put("description", long_str);
+      pkr.packMap(map);
+    }
+    LeonUnpacker unpkr = new LeonUnpacker(pkr.toByteArray());
+    LeonStringCache cache = new LeonStringCache(64);
+    unpkr.setStringCache(cache);
+    List<Map<Object, Object>> records = new ArrayList<>();
+    for(int i = 0; i < 10; i++) {
+      Map<Object, Object> map = unpkr.unpackMap();
+      assertEquals((long) i, map.get("id"));
+      assertEquals("record " + (i % 2), map.get("name"));
+      assertEquals(long_str, map.get("description"));
+      records.add(map);
+    }
+    // 3 keys and 2 distinct names, the long description is not cached.
+    // Two strings can share a slot of the direct mapped table and miss more.
+    assertEquals(40, cache.hits() + cache.misses());
+    assertTrue(cache.misses() >= 5);
+    assertTrue(cache.hits() > 0);
+    assertSame(records.get(1).get("name"), records.get(9).get("name"));
+    assertNotSame(records.get(1).get("description"), records.get(9).get("description"));
+    cache.clear();
+    assertEquals(0, cache.hits());
+    try {
+      new LeonStringCache(64, -1);
+      fail();
+    } catch(IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testTagKinds() {
+    for(int tag = 0; tag < 256; tag++) {
+      int kind = Tags.kind(tag);
+      // the table against the bit patterns of the grammar
+      assertEquals(tag < 0x40 || tag >= 0x80 || tag == Tags.FIXED_INT64_TAG, kind == Tags.KIND_INT);
+      assertEquals(tag == Tags.TRUE || tag == Tags.FALSE, Tags.isBoolean(tag));
+      assertEquals((tag & 0xF0) == Tags.LIST_TAG, kind == Tags.KIND_LIST);
+      assertEquals((tag & 0xF8) == Tags.MAP_TAG, kind == Tags.KIND_MAP);
+      assertEquals((tag & 0xE0) == Tags.STR_TAG, kind == Tags.KIND_STRING);
+      assertEquals(kind == Tags.KIND_INT, Tags.isInt(tag));
+      assertEquals(kind == Tags.KIND_LIST, Tags.isList(tag));
+      assertEquals(kind == Tags.KIND_MAP, Tags.isMap(tag));
+      assertEquals(kind == Tags.KIND_STRING, Tags.isString(tag));
+      if(kind == Tags.KIND_LIST) {
+        assertEquals(tag & Tags.MASK_LENGTH_SMALL_LIST, Tags.smallLength(tag));
+      } else if(kind == Tags.KIND_STRING) {
+        assertEquals(tag & Tags.MASK_SIZE_SMALL_STR, Tags.smallLength(tag));
+      }
+    }
+    assertEquals(Tags.KIND_EOF, Tags.kind(Tags.EOF));
+    assertEquals(Tags.KIND_EXT, Tags.kind(Tags.EXT_TAG));
+    assertEquals(Tags.KIND_INT, Tags.kind(Tags.FIXED_INT64_TAG));
+    assertFalse(Tags.isValidTag(Tags.EOF));
+    assertFalse(Tags.isInt(Tags.EOF));
+    assertFalse(Tags.isValidTag(256));
+    assertEquals(3, Tags.smallLength(Tags.MAP_TAG | 3));
+  }
+
+  public void testPrimitiveArrays() throws IOException {
+    long[] longs = {0, -1, 31, -32, 741, Long.MAX_VALUE, Long.MIN_VALUE};
+    int[] ints = {0, Integer.MIN_VALUE, Integer.MAX_VALUE, 42};
+    double[] doubles = new double[100];
+    float[] floats = {1.5f, Float.NaN, -0.0f};
+    for(int i = 0; i < doubles.length; i++) {
+      doubles[i] = i * 0.25;
+    }
+    LeonPacker pkr = new LeonPacker();
+    pkr.packLongArray(longs).packIntArray(ints).packDoubleArray(doubles).packFloatArray(floats);
+    pkr.packObject(longs).packObject(new double[0]);
+    LeonUnpacker unpkr = new LeonUnpacker(pkr.toByteArray());
+    long[] reuse = new long[longs.length];
+    assertSame(reuse, unpkr.unpackLongArray(reuse));
+    assertTrue(Arrays.equals(longs, reuse));
+    assertTrue(Arrays.equals(ints, unpkr.unpackIntArray(null)));
+    assertTrue(Arrays.equals(doubles, unpkr.unpackDoubleArray(new double[1])));
+    assertTrue(Arrays.equals(floats, unpkr.unpackFloatArray(null)));
+    List<Object> boxed = unpkr.unpackList();
+    assertEquals(longs.length, boxed.size());
+    assertEquals(Long.MIN_VALUE, boxed.get(longs.length - 1));
+    assertEquals(0, unpkr.unpackDoubleArray(null).length);
+
+    unpkr.position(0);
+    try {
+      unpkr.unpackIntArray(null);
+      fail();
+    } catch(LeonException e) {
+      assertEquals(LeonException.Reason.UnableToUnpackObj, e.reason());
+    }
+  }
+
+  public void testTypedArrays() throws IOException {
+    long[] longs = new long[10000];
+    int[] ints = {Integer.MIN_VALUE, -1, 0, Integer.MAX_VALUE};
+    double[] doubles = new double[3000];
+    float[] floats = {1.5f, Float.NaN, -0.0f};
+    for(int i = 0; i < longs.length; i++) {
+      longs[i] = i * 0x123456789L;
+    }
+    for(int i = 0; i < doubles.length; i++) {
+      doubles[i] = i / 7.0;
+    }
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    LeonPacker stream_pkr = new LeonPacker(bos);
+    LeonPacker buf_pkr = new LeonPacker();
+    for(LeonPacker pkr : new LeonPacker[]{stream_pkr, buf_pkr}) {
+      pkr.packTypedArray(longs).packTypedArray(ints).packString("middle").packTypedArray(doubles);
+      pkr.packTypedArray(floats).packTypedArray(new long[0]).packString("END");
+    }
+    stream_pkr.flush();
+    byte[] bytes = buf_pkr.toByteArray();
+    assertTrue(Arrays.equals(bos.toByteArray(), bytes));
+    // tag, element type, 3 bytes length and the raw elements
+    assertEquals(2 + 3 + 8 * longs.length, new LeonPacker().packTypedArray(longs).size());
+
+    LeonUnpacker unpkr = new LeonUnpacker(bytes);
+    long[] reuse = new long[longs.length];
+    assertSame(reuse, unpkr.unpackLongArray(reuse));
+    assertTrue(Arrays.equals(longs, reuse));
+    assertTrue(Arrays.equals(ints, (int[]) unpkr.unpackObject()));
+    assertEquals("middle", unpkr.unpackString());
+    assertTrue(Arrays.equals(doubles, unpkr.unpackDoubleArray(null)));
+    assertTrue(Arrays.equals(floats, (float[]) unpkr.unpackObject()));
+    assertEquals(0, unpkr.unpackLongArray(null).length);
+    assertEquals("END", unpkr.unpackString());
+
+    unpkr.position(0);
+    for(int i = 0; i < 6; i++) {
+      int tag = unpkr.nextTag();
+      if(i == 2) {
+        assertEquals("middle", unpkr.unpackStringWithTag(tag));
+      } else {
+        unpkr.skipObject(tag);
+      }
+    }
+    assertEquals("END", unpkr.unpackString());
+
+    unpkr.position(0);
+    try {
+      unpkr.unpackDoubleArray(null);
+      fail();
+    } catch(LeonException e) {
+      assertEquals(LeonException.Reason.UnableToUnpackObj, e.reason());
+    }
+  }
+
+  public void testReader() throws IOException {
+    Map<Object, Object> user = new HashMap<>();
+    user.put("name", "Ada");
+    user.put("tags", Arrays.asList("a", "b", "c"));
+    LeonPacker pkr = new LeonPacker();
+    pkr.packList(Arrays.asList(1L, user, 2.5, new byte[]{1}, null, true));
+    pkr.packTypedArray(new long[]{7, 8}).packString("END");
+    LeonReader reader = new LeonReader(new LeonUnpacker(pkr.toByteArray()));
+
+    assertEquals(LeonReader.Event.START_LIST, reader.next());
+    assertEquals(6, reader.length());
+    assertEquals(1, reader.depth());
+    assertEquals(LeonReader.Event.INT, reader.next());
+    assertEquals(1L, reader.longValue());
+    assertEquals(LeonReader.Event.START_MAP, reader.next());
+    assertEquals(2, reader.length());
+    String tags_key = null;
+    while(tags_key == null) {
+      assertEquals(LeonReader.Event.STRING, reader.next());
+      assertTrue(reader.isKey());
+      String key = reader.stringValue();
+      if(key.equals("tags")) {
+        tags_key = key;
+      } else {
+        reader.next(); // value left unread, skipped by the next call
+        assertFalse(reader.isKey());
+      }
+    }
+    assertEquals(LeonReader.Event.START_LIST, reader.next());
+    assertEquals(3, reader.depth());
+    assertEquals(LeonReader.Event.STRING, reader.next());
+    reader.skipChildren();
+    assertEquals(LeonReader.Event.END_LIST, reader.next());
+    assertEquals(2, reader.depth());
+    reader.skipChildren();
+    assertEquals(LeonReader.Event.END_MAP, reader.next());
+    assertEquals(LeonReader.Event.DOUBLE, reader.next());
+    assertEquals(2.5, reader.doubleValue());
+    assertEquals(LeonReader.Event.BYTES, reader.next());
+    assertEquals(LeonReader.Event.NULL, reader.next());
+    assertEquals(LeonReader.Event.BOOLEAN, reader.next());
+    assertTrue(reader.booleanValue());
+    assertEquals(LeonReader.Event.END_LIST, reader.next());
+    assertEquals(0, reader.depth());
+    assertEquals(LeonReader.Event.EXTENSION, reader.next());
+    assertTrue(Arrays.equals(new long[]{7, 8}, (long[]) reader.objectValue()));
+    assertEquals(LeonReader.Event.STRING, reader.next());
+    try {
+      reader.longValue();
+      fail();
+    } catch(IllegalStateException e) {
+      // expected
+    }
+    assertEquals("END", reader.stringValue());
+    assertEquals(LeonReader.Event.END_OF_INPUT, reader.next());
+  }
+
+  public void testPath() throws IOException {
+    List<Object> users = new ArrayList<>();
+    for(int i = 0; i < 5; i++) {
+      Map<Object, Object> user = new HashMap<>();
+      user.put("name", "user" + i);
+      user.put("email", "user" + i + "@example.com");
+      user.put(7L, Arrays.asList((long) i, i * 2L));
+      users.add(user);
+    }
+    Map<Object, Object> doc = new HashMap<>();
+    doc.put("users", users);
+    doc.put("blob", new byte[100000]);
+    doc.put(true, "yes");
+    LeonPacker pkr = new LeonPacker();
+    pkr.packMap(doc);
+    byte[] bytes = pkr.toByteArray();
+
+    assertEquals("user3@example.com", LeonPath.of("users", 3, "email").read(new LeonUnpacker(bytes), null));
+    assertEquals(8L, LeonPath.of("users", 4, 7, 1).read(new LeonUnpacker(bytes), null));
+    assertEquals("yes", LeonPath.of(true).read(new LeonUnpacker(bytes), null));
+    assertEquals("missing", LeonPath.of("users", 5, "email").read(new LeonUnpacker(bytes), "missing"));
+    assertEquals("missing", LeonPath.of("users", 0, "phone").read(new LeonUnpacker(bytes), "missing"));
+    assertEquals("missing", LeonPath.of("users", "0").read(new LeonUnpacker(bytes), "missing"));
+    assertEquals("missing", LeonPath.of("blob", 0).read(new LeonUnpacker(bytes), "missing"));
+    assertEquals(users, LeonPath.of("users").read(new LeonUnpacker(bytes), null));
+    assertEquals(doc.size(), ((Map<?, ?>) LeonPath.of().read(new LeonUnpacker(bytes), null)).size());
+
+    LeonUnpacker unpkr = new LeonUnpacker(bytes);
+    assertTrue(LeonPath.of("users", 1, "name").locate(unpkr));
+    assertEquals("user1", unpkr.unpackString());
+  }
+
+  public void testLazyView() throws IOException {
+    List<Object> list = new ArrayList<>();
+    for(long i = 0; i < 100; i++) {
+      Map<Object, Object> map = new HashMap<>();
+      map.put("id", i);
+      map.put("values", Arrays.asList(i, "v" + i, null));
+      map.put(i, i % 2 == 0);
+      list.add(map);
+    }
+    LeonPacker pkr = new LeonPacker();
+    pkr.packList(list);
+    Object view = LeonValue.view(pkr.toByteArray());
+    assertTrue(view instanceof LeonList);
+    LeonList view_list = (LeonList) view;
+    assertEquals(100, view_list.size());
+    Object elem = view_list.get(42);
+    assertTrue(elem instanceof LeonMap);
+    LeonMap view_map = (LeonMap) elem;
+    assertEquals(42L, view_map.get("id"));
+    assertEquals(true, view_map.get(42L));
+    assertNull(view_map.get("missing"));
+    assertTrue(view_map.containsKey("values"));
+    assertFalse(view_map.containsKey("missing"));
+    assertEquals(Arrays.asList(42L, "v42", null), view_map.get("values"));
+    assertSame(elem, view_list.get(42));
+    assertEquals(list.get(7), view_list.get(7));
+    assertEquals(list, view_list);
+    assertEquals("scalar", LeonValue.view(new LeonPacker().packString("scalar").asByteBuffer()));
+    try {
+      view_list.add(1L);
+      fail();
+    } catch(UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
+  public void testIndex() throws IOException {
+    String out_bin = "out/testIndex.leon";
+    LeonPacker pkr = new LeonPacker(out_bin, true);
+    for(long i = 0; i < 1000; i++) {
+      if(i % 3 == 0) {
+        pkr.packListTag(2).packInt(i).packMap(new HashMap<>(Collections.singletonMap("k", (Object) i)));
+      } else if(i % 3 == 1) {
+        pkr.packDoubleArray(new double[]{i, i}).packTypedArray(new long[]{i});
+      } else {
+        pkr.packBytes(new byte[(int) i]).packString("s" + i);
+      }
+    }
+    pkr.close();
+    assertEquals(1000 + 2 * 1000 / 3, pkr.index().size());
+
+    LeonIndex index = LeonIndex.load(out_bin);
+    assertEquals(pkr.index().size(), index.size());
+    LeonUnpacker unpkr = new LeonUnpacker(out_bin);
+    unpkr.seek(index.size() - 2);
+    assertEquals("s998", unpkr.unpackString());
+    unpkr.seek(0);
+    assertEquals(Arrays.asList(0L, Collections.singletonMap("k", 0L)), unpkr.unpackList());
+    unpkr.seek(1);
+    assertTrue(Arrays.equals(new double[]{1, 1}, unpkr.unpackDoubleArray(null)));
+    assertEquals(1L, unpkr.unpackLongArray(null)[0]);
+    assertEquals(index.offset(3), unpkr.position());
+    unpkr.close();
+
+    unpkr = new LeonUnpacker(FileChannel.open(Paths.get(out_bin)));
+    unpkr.setIndex(index);
+    unpkr.seek(4);
+    assertEquals("s2", unpkr.unpackString());
+    unpkr.close();
+
+    // Rewriting the file drops its index, a stale one is rejected
+    new LeonPacker(out_bin, false).packString("a").packString("b").close();
+    assertFalse(new File(LeonIndex.sidecarPath(out_bin)).exists());
+    index.save(out_bin);
+    unpkr = new LeonUnpacker(out_bin);
+    try {
+      unpkr.seek(1);
+      fail();
+    } catch(LeonException e) {
+      assertEquals(LeonException.Reason.UnableToUnpackObj, e.reason());
+    }
+    unpkr.close();
+    deleteFile(LeonIndex.sidecarPath(out_bin));
+    deleteFile(out_bin);
+  }
+
+  public void testParallelReader() throws IOException {
+    String out_bin = "out/testParallelReader.leon";
+    List<Object> expected = new ArrayList<>();
+    for(long i = 0; i < 5000; i++) {
+      Map<Object, Object> map = new HashMap<>();
+      map.put("id", i);
+      map.put("data", Arrays.asList(i, "x" + i, i * 0.5));
+      expected.add(i % 10 == 0 ? "string " + i : map);
+    }
+    for(boolean index : new boolean[]{false, true}) {
+      LeonPacker pkr = new LeonPacker(out_bin, index);
+      pkr.packList(expected.subList(0, 0));
+      for(Object o : expected) {
+        pkr.packObject(o);
+      }
+      pkr.close();
+      assertEquals(index, new File(LeonIndex.sidecarPath(out_bin)).exists());
+      LeonParallelReader reader = new LeonParallelReader(out_bin);
+      assertEquals(expected.size() + 1, reader.size());
+      List<Object> decoded = reader.stream().skip(1).collect(Collectors.toList());
+      assertEquals(expected, decoded);
+      reader.close();
+    }
+
+    // Rewritten without an index, the old sidecar must not be used
+    LeonIndex stale = LeonIndex.load(out_bin);
+    LeonPacker pkr = new LeonPacker(out_bin, false);
+    for(Object o : expected.subList(0, 1000)) {
+      pkr.packObject(Collections.singletonList(o));
+    }
+    pkr.close();
+    LeonParallelReader reader = new LeonParallelReader(out_bin);
+    assertEquals(1000, reader.size());
+    assertEquals(Collections.singletonList(expected.get(999)), reader.stream().skip(999).findFirst().get());
+    reader.close();
+    stale.save(out_bin);
+    try {
+      new LeonParallelReader(out_bin);
+      fail();
+    } catch(LeonException e) {
+      assertEquals(LeonException.Reason.UnableToUnpackObj, e.reason());
+    }
+    deleteFile(LeonIndex.sidecarPath(out_bin));
+    deleteFile(out_bin);
+  }
+
+  public void testRegistry() throws IOException {
+    UUID uuid = UUID.fromString("123e4567-e89b-12d3-a456-426614174000");
+    Instant instant = Instant.ofEpochSecond(1666000000L, 123456789);
+    BigDecimal small = new BigDecimal("-12.50");
+    BigDecimal big = new BigDecimal("123456789012345678901234567890.000001");
+    List<Object> builtins = Arrays.asList(uuid, instant, small, big, Arrays.asList(uuid, 1L));
+
+    LeonRegistry standard = new LeonRegistry().registerStandardTypes();
+    LeonPacker pkr = new LeonPacker();
+    try {
+      pkr.packObject(uuid);
+      fail();
+    } catch(LeonException e) {
+      assertEquals(LeonException.Reason.UnableToPackObj, e.reason());
+    }
+    pkr.reset();
+    pkr.setRegistry(standard);
+    pkr.packList(builtins);
+    LeonUnpacker unpkr = new LeonUnpacker(pkr.toByteArray());
+    try {
+      unpkr.unpackList();
+      fail();
+    } catch(LeonException e) {
+      assertEquals(LeonException.Reason.UnableToUnpackObj, e.reason());
+    }
+    unpkr = new LeonUnpacker(pkr.toByteArray());
+    unpkr.setRegistry(standard);
+    assertEquals(builtins, unpkr.unpackList());
+
+    LeonCodec<Temperature> codec = new LeonCodec<Temperature>() {
+      @Override
+      public LeonPacker pack(LeonPacker packer, Temperature value) throws IOException {
+        return packer.packDouble(value.kelvin);
+      }
+
+      @Override
+      public Temperature unpack(LeonUnpacker unpacker) throws IOException {
+        Temperature t = new Temperature();
+        t.kelvin = unpacker.unpackDouble();
+        return t;
+      }
+    };
+    LeonRegistry registry = new LeonRegistry().registerStandardTypes();
+    try {
+      registry.register(Temperature.class, LeonRegistry.UUID_TYPE, codec);
+      fail();
+    } catch(IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      registry.register(String.class, 43, new LeonCodec<String>() {
+        @Override
+        public LeonPacker pack(LeonPacker packer, String value) throws IOException {
+          return packer.packString(value);
+        }
+
+        @Override
+        public String unpack(LeonUnpacker unpacker) throws IOException {
+          return unpacker.unpackString();
+        }
+      });
+      fail();
+    } catch(IllegalArgumentException e) {
+      // expected, core types keep their encoding
+    }
+    registry.register(Temperature.class, 42, codec);
+
+    Temperature t = new Temperature() {}; // subclasses use the codec of Temperature
+    t.kelvin = 273.15;
+    pkr.reset();
+    pkr.setRegistry(standard);
+    try {
+      pkr.packObject(t);
+      fail();
+    } catch(LeonException e) {
+      assertEquals(LeonException.Reason.UnableToPackObj, e.reason());
+    }
+    pkr.reset();
+    pkr.setRegistry(registry);
+    pkr.packObject(t).packObject(uuid).packString("end");
+    byte[] bytes = pkr.toByteArray();
+    assertEquals(Tags.EXT_TAG, bytes[0] & 0xFF);
+    assertEquals(Tags.EXT_CUSTOM, bytes[1] & 0xFF);
+
+    unpkr = new LeonUnpacker(bytes);
+    try {
+      unpkr.unpackObject();
+      fail();
+    } catch(LeonException e) {
+      assertEquals(LeonException.Reason.UnableToUnpackObj, e.reason());
+    }
+    unpkr = new LeonUnpacker(bytes);
+    unpkr.setRegistry(standard);
+    unpkr.skipObject(unpkr.nextTag());
+    assertEquals(uuid, unpkr.unpackObject());
+    assertEquals("end", unpkr.unpackString());
+
+    unpkr = new LeonUnpacker(bytes);
+    unpkr.setRegistry(registry);
+    assertEquals(273.15, ((Temperature) unpkr.unpackObject()).kelvin);
+    assertEquals(uuid, unpkr.unpackObject());
+  }
+
+  public void testKeyDictionary() throws IOException {
+    List<Object> records = new ArrayList<>();
+    for(long i = 0; i < 20; i++) {
+      Map<Object, Object> map = new HashMap<>();
+      map.put("identifier", i);
+      map.put("name", "n" + i);
+      map.put("x", i % 2 == 0);
+      map.put("description", "record");
+      map.put(i, "integer key");
+      records.add(map);
+    }
+    LeonPacker plain = new LeonPacker();
+    LeonPacker pkr = new LeonPacker();
+    pkr.setKeyDictionary(2, 2);
+    for(Object r : records) {
+      plain.packObject(r);
+      pkr.packObject(r);
+    }
+    assertTrue(pkr.size() < plain.size());
+    byte[] bytes = pkr.toByteArray();
+
+    LeonUnpacker unpkr = new LeonUnpacker(bytes);
+    for(Object r : records) {
+      assertEquals(r, unpkr.unpackObject());
+    }
+
+    // Definitions are recorded while skipping
+    unpkr = new LeonUnpacker(bytes);
+    unpkr.skipObject(unpkr.nextTag());
+    assertEquals(records.get(1), unpkr.unpackObject());
+    assertEquals("n0", LeonPath.of("name").read(new LeonUnpacker(bytes), null));
+
+    LeonReader reader = new LeonReader(new LeonUnpacker(bytes));
+    int strings = 0;
+    while(reader.next() != LeonReader.Event.END_OF_INPUT) {
+      if(reader.event() == LeonReader.Event.STRING && reader.isKey()) {
+        strings++;
+        if(strings % 2 == 0) {
+          assertTrue(Arrays.asList("identifier", "name", "x", "description").contains(reader.stringValue()));
+        }
+      }
+    }
+    assertEquals(records.size() * 4, strings);
+
+    // Generated codecs use the dictionary for their field names
+    pkr.reset();
+    Point p = new Point();
+    p.name = "first";
+    CoreTest_Point_LeonCodec.INSTANCE.pack(pkr, p);
+    p.name = "second";
+    CoreTest_Point_LeonCodec.INSTANCE.pack(pkr, p);
+    unpkr = new LeonUnpacker(pkr.toByteArray());
+    assertEquals("first", CoreTest_Point_LeonCodec.INSTANCE.unpack(unpkr).name);
+    assertEquals("second", CoreTest_Point_LeonCodec.INSTANCE.unpack(unpkr).name);
+
+    // A record decoded on its own refers to undefined keys
+    pkr.reset();
+    pkr.packObject(records.get(0));
+    int first = pkr.size();
+    pkr.packObject(records.get(1));
+    unpkr = new LeonUnpacker(pkr.toByteArray(), first, pkr.size() - first);
+    try {
+      unpkr.unpackObject();
+      fail();
+    } catch(LeonException e) {
+      assertEquals(LeonException.Reason.UnableToUnpackObj, e.reason());
+    }
+
+    // The minimum length is in UTF-8 bytes: one char, two bytes
+    pkr = new LeonPacker();
+    pkr.setKeyDictionary(2, 2);
+    pkr.packKey("\u00e9").packKey("\u00e9").packKey("a");
+    // definition: tag, type, id and string, reference: tag, type, id, plain string
+    assertEquals(3 + LeonSizer.sizeOfString("\u00e9") + 3 + LeonSizer.sizeOfString("a"), pkr.size());
+
+    // Splits of a parallel reader cannot share the dictionary
+    String out_bin = "out/testKeyDictionary.leon";
+    pkr = new LeonPacker(out_bin);
+    pkr.setKeyDictionary(16, 0);
+    for(Object r : records) {
+      pkr.packObject(r);
+    }
+    pkr.close();
+    try {
+      new LeonParallelReader(out_bin);
+      fail();
+    } catch(LeonException e) {
+      assertEquals(LeonException.Reason.UnableToUnpackObj, e.reason());
+    }
+    deleteFile(out_bin);
+  }
+
+  public void testBlockFile() throws IOException {
+    String out_bin = "out/testBlockFile.leonz";
+    Random rnd = new Random(7);
+    List<Object> expected = new ArrayList<>();
+    for(long i = 0; i < 3000; i++) {
+      Map<Object, Object> map = new HashMap<>();
+      map.put("id", i);
+      map.put("name", "name " + (i % 17));
+      map.put("score", i * 0.25);
+      expected.add(map);
+    }
+    byte[] noise = new byte[10000];
+    rnd.nextBytes(noise);
+    expected.add(noise); // stored uncompressed
+    char[] run = new char[70000];
+    Arrays.fill(run, 'a');
+    expected.add(new String(run)); // overlapping matches, long lengths
+    expected.add("end");
+
+    LeonBlockWriter writer = new LeonBlockWriter(new FileOutputStream(out_bin), 4096);
+    writer.packer().setKeyDictionary(16, 2);
+    for(Object o : expected) {
+      writer.packObject(o);
+    }
+    writer.close();
+
+    LeonPacker plain = new LeonPacker();
+    for(Object o : expected) {
+      plain.packObject(o);
+    }
+    assertTrue(new File(out_bin).length() < plain.size() / 2);
+
+    LeonBlockReader reader = new LeonBlockReader(out_bin);
+    assertEquals(expected.size(), reader.size());
+    assertTrue(reader.blockCount() > 10);
+    List<Object> decoded = reader.stream().collect(Collectors.toList());
+    assertEquals(expected.size(), decoded.size());
+    for(int i = 0; i < expected.size(); i++) {
+      if(expected.get(i) instanceof byte[]) {
+        assertTrue(Arrays.equals((byte[]) expected.get(i), (byte[]) decoded.get(i)));
+      } else {
+        assertEquals(expected.get(i), decoded.get(i));
+      }
+    }
+    LeonUnpacker unpkr = reader.seek(1234);
+    assertEquals(expected.get(1234), unpkr.unpackObject());
+    assertEquals(expected.get(1235), unpkr.unpackObject());
+    unpkr = reader.seek(expected.size() - 2);
+    assertEquals(expected.get(expected.size() - 2), unpkr.unpackObject());
+    assertEquals("end", unpkr.unpackObject());
+    assertEquals(Tags.EOF, unpkr.nextTag());
+    reader.close();
+    deleteFile(out_bin);
+  }
+
+  public void testPushDecoder() throws IOException {
+    List<Object> expected = new ArrayList<>();
+    for(long i = 0; i < 200; i++) {
+      Map<Object, Object> map = new HashMap<>();
+      map.put("id", i * 1234567891L);
+      map.put("text", i % 3 == 0 ? new String(new char[100]).replace('\0', 'x') : "t" + i);
+      map.put("values", Arrays.asList(-i, i * 0.5, (float) i, null, true, false, new byte[0]));
+      map.put("empty", new HashMap<>());
+      expected.add(map);
+      expected.add(UUID.nameUUIDFromBytes(new byte[]{(byte) i}));
+    }
+    LeonRegistry standard = new LeonRegistry().registerStandardTypes();
+    LeonPacker pkr = new LeonPacker();
+    pkr.setRegistry(standard);
+    pkr.setKeyDictionary(8, 1);
+    pkr.packHeader();
+    for(Object o : expected) {
+      pkr.packObject(o);
+    }
+    pkr.packTypedArray(new long[]{1, 2, 3});
+    byte[] bytes = pkr.toByteArray();
+
+    Random rnd = new Random(3);
+    for(int max_chunk : new int[]{1, 7, 100, bytes.length}) {
+      List<Object> decoded = new ArrayList<>();
+      LeonPushDecoder decoder = new LeonPushDecoder(true, decoded::add);
+      decoder.unpacker().setRegistry(standard);
+      int pos = 0;
+      while(pos < bytes.length) {
+        int n = Math.min(1 + rnd.nextInt(max_chunk), bytes.length - pos);
+        decoder.feed(ByteBuffer.wrap(bytes, pos, n));
+        pos += n;
+      }
+      assertFalse(decoder.hasPartialObject());
+      assertEquals(1, decoder.unpacker().major);
+      assertEquals(expected.size() + 1, decoded.size());
+      assertTrue(Arrays.equals(new long[]{1, 2, 3}, (long[]) decoded.remove(expected.size())));
+      for(int i = 0; i < expected.size(); i++) {
+        if(i % 2 == 0) {
+          Map<?, ?> map = (Map<?, ?>) decoded.get(i);
+          Map<?, ?> exp = (Map<?, ?>) expected.get(i);
+          assertEquals(exp.get("id"), map.get("id"));
+          assertEquals(exp.get("text"), map.get("text"));
+          assertEquals(7, ((List<?>) map.get("values")).size());
+          assertEquals(exp.get("empty"), map.get("empty"));
+        } else {
+          assertEquals(expected.get(i), decoded.get(i));
+        }
+      }
+    }
+
+    List<Object> decoded = new ArrayList<>();
+    LeonPushDecoder decoder = new LeonPushDecoder(false, decoded::add);
+    decoder.feed(ByteBuffer.wrap(new byte[]{(byte) (Tags.LIST_TAG | 2), 1}));
+    assertTrue(decoder.hasPartialObject());
+    assertTrue(decoded.isEmpty());
+    decoder.feed(ByteBuffer.wrap(new byte[]{2, 3}));
+    assertEquals(Arrays.asList(Arrays.asList(1L, 2L), 3L), decoded);
+    assertFalse(decoder.hasPartialObject());
+  }
+
+  public void testFrames() throws IOException {
+    for(boolean checksum : new boolean[]{false, true}) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      LeonFrameWriter writer = new LeonFrameWriter(out, checksum);
+      for(long i = 0; i < 100; i++) {
+        writer.writeObject(Arrays.asList(i, "record " + i));
+      }
+      writer.packer().packString("two").packString("objects");
+      writer.endFrame();
+      writer.close();
+
+      LeonFrameReader reader = new LeonFrameReader(new ByteArrayInputStream(out.toByteArray()), checksum);
+      assertTrue(reader.skipFrame());
+      assertEquals(Arrays.asList(1L, "record 1"), new LeonUnpacker(reader.nextFrame()).unpackObject());
+      List<byte[]> batch = reader.nextFrames(50);
+      assertEquals(50, batch.size());
+      assertEquals(Arrays.asList(51L, "record 51"), new LeonUnpacker(batch.get(49)).unpackObject());
+      for(int i = 0; i < 48; i++) {
+        assertTrue(reader.skipFrame());
+      }
+      LeonUnpacker unpkr = new LeonUnpacker(reader.nextFrame());
+      assertEquals("two", unpkr.unpackString());
+      assertEquals("objects", unpkr.unpackString());
+      assertNull(reader.nextFrame());
+      assertFalse(reader.skipFrame());
+      assertEquals(out.size(), reader.position());
+    }
+
+    // CRC-32C check value, then a corrupted payload
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LeonFrameWriter writer = new LeonFrameWriter(out, true);
+    byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+    writer.writeFrame(check, 0, check.length);
+    writer.close();
+    byte[] bytes = out.toByteArray();
+    assertEquals(0xE3069283, ByteBuffer.wrap(bytes, 10, 4).order(ByteOrder.LITTLE_ENDIAN).getInt());
+    bytes[5] ^= 1;
+    try {
+      new LeonFrameReader(ByteBuffer.wrap(bytes), true).nextFrame();
+      fail();
+    } catch(LeonException e) {
+      assertEquals(LeonException.Reason.UnableToUnpackObj, e.reason());
+    }
+  }
+
+  public void testDeferredContainers() throws IOException {
+    List<Object> expected = new ArrayList<>();
+    for(long i = 0; i < 3000; i++) {
+      Map<Object, Object> map = new HashMap<>();
+      map.put("i", i);
+      map.put("list", i % 2 == 0 ? Arrays.asList(1L, 2L) : Collections.emptyList());
+      expected.add(map);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LeonPacker streaming = new LeonPacker(out);
+    LeonPacker buffered = new LeonPacker();
+    for(LeonPacker pkr : new LeonPacker[]{streaming, buffered}) {
+      pkr.packString("before");
+      pkr.beginList();
+      for(long i = 0; i < 3000; i++) {
+        pkr.beginMap().packString("i").packInt(i).packString("list");
+        if(i % 2 == 0) {
+          pkr.packListTag(2).packInt(1).packInt(2);
+        } else {
+          pkr.beginList().endList();
+        }
+        pkr.endMap();
+      }
+      pkr.endList();
+      pkr.beginMap().endMap();
+      pkr.flush();
+    }
+    LeonPacker plain = new LeonPacker();
+    plain.packString("before").packList(expected).packMap(new HashMap<>());
+    byte[] bytes = plain.toByteArray();
+    assertTrue(Arrays.equals(bytes, buffered.toByteArray()));
+    assertTrue(Arrays.equals(bytes, out.toByteArray()));
+
+    LeonPacker pkr = new LeonPacker();
+    try {
+      pkr.beginList().endMap();
+      fail();
+    } catch(IllegalStateException e) {
+      // expected
+    }
+    pkr.reset();
+    try {
+      pkr.beginMap().packInt(1).endMap();
+      fail();
+    } catch(IllegalStateException e) {
+      // expected
+    }
+
+    // nothing is written or silently dropped with a container still open
+    ByteArrayOutputStream unbalanced = new ByteArrayOutputStream();
+    pkr = new LeonPacker(unbalanced);
+    pkr.packInt(1).beginList().packInt(2);
+    try {
+      pkr.flush();
+      fail();
+    } catch(IllegalStateException e) {
+      // expected
+    }
+    pkr.beginMap();
+    try {
+      pkr.close();
+      fail();
+    } catch(IllegalStateException e) {
+      // expected
+    }
+    assertEquals(1, unbalanced.size());
+
+    List<Object> values = Arrays.asList(null, true, 31L, -33L, Long.MIN_VALUE, 1.5, 2.5f, "", "small",
+      new String(new char[40]), "\u00e8\ud83d\ude00", new byte[300], new long[]{1, 1000}, new int[20],
+      new double[3], new float[2], expected, new HashMap<>(), new MyObj());
+    for(Object v : values) {
+      assertEquals(new LeonPacker().packObject(v).size(), LeonSizer.sizeOf(v));
+    }
+    assertEquals(bytes.length, LeonSizer.sizeOf("before") + LeonSizer.sizeOf(expected) + LeonSizer.sizeOfMapTag(0));
+  }
+
+  public void testFastVarint() throws IOException {
+    List<Long> values = new ArrayList<>();
+    for(int k = 0; k < 64; k++) {
+      values.add(1L << k);
+      values.add((1L << k) - 1);
+      values.add(-(1L << k));
+      values.add(-(1L << k) - 1);
+    }
+    Random rnd = new Random(7);
+    for(int i = 0; i < 1000; i++) {
+      values.add(rnd.nextLong() >> rnd.nextInt(64));
+    }
+    values.add(Long.MAX_VALUE);
+    values.add(Long.MIN_VALUE);
+    LeonPacker pkr = new LeonPacker();
+    for(long x : values) {
+      pkr.packInt(x);
+    }
+    byte[] bytes = pkr.toByteArray();
+    LeonUnpacker unpkr = new LeonUnpacker(bytes);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+    buffer.put(bytes).flip();
+    LeonUnpacker direct = new LeonUnpacker(buffer);
+    for(long x : values) {
+      assertEquals(x, unpkr.unpackInt());
+      assertEquals(x, direct.unpackInt());
+    }
+    assertEquals(bytes.length, unpkr.position());
+
+    // Every integer alone, so that its last bytes are near the end of the array
+    for(long x : values) {
+      byte[] one = new LeonPacker().packInt(x).toByteArray();
+      byte[] padded = Arrays.copyOf(one, one.length + 8);
+      assertEquals(x, new LeonUnpacker(one).unpackInt());
+      assertEquals(x, new LeonUnpacker(padded).unpackInt());
+      try {
+        new LeonUnpacker(one, 0, one.length - 1).unpackInt();
+        fail();
+      } catch(LeonException e) {
+        assertEquals(LeonException.Reason.UnableToUnpackObj, e.reason());
+      }
+    }
+  }
+
+  public void testUnpackIntAtEndOfInput() throws IOException {
+    byte[] header = new LeonPacker().packHeader().toByteArray();
+    LeonUnpacker[] unpkrs = {
+      new LeonUnpacker(new byte[0]),
+      new LeonUnpacker(new ByteArrayInputStream(header))
+    };
+    for(LeonUnpacker unpkr : unpkrs) {
+      try {
+        unpkr.unpackInt();
+        fail();
+      } catch(LeonException e) {
+        assertEquals(LeonException.Reason.UnableToUnpackObj, e.reason());
+        assertEquals("Unexpected end of input reached", e.getMessage());
+      }
+    }
+  }
+
+  public void testFixedInt() throws IOException {
+    assertTrue(Tags.isValidTag(Tags.FIXED_INT64_TAG));
+    assertTrue(Tags.isInt(Tags.FIXED_INT64_TAG));
+    long[] values = {0, -1, (1L << 54) - 1, -(1L << 54), 1L << 54, -(1L << 54) - 1, 1L << 61,
+      Long.MAX_VALUE, Long.MIN_VALUE, 0x9E3779B97F4A7C15L};
+    LeonPacker pkr = new LeonPacker();
+    pkr.setFixedWidthInts(true);
+    for(long x : values) {
+      long before = pkr.size();
+      pkr.packInt(x);
+      assertEquals(LeonSizer.sizeOfInt(x, true), pkr.size() - before);
+      assertTrue(LeonSizer.sizeOfInt(x, true) <= LeonSizer.sizeOfInt(x));
+    }
+    assertEquals(9, new LeonPacker().packFixedInt(1).size());
+    assertEquals(9, LeonSizer.sizeOfInt(Long.MIN_VALUE, true));
+    assertEquals(10, LeonSizer.sizeOfInt(Long.MIN_VALUE));
+    assertEquals(8, LeonSizer.sizeOfInt((1L << 54) - 1, true));
+    pkr.packList(Arrays.asList(Long.MAX_VALUE, "end"));
+    byte[] bytes = pkr.toByteArray();
+
+    LeonUnpacker unpkr = new LeonUnpacker(bytes);
+    for(long x : values) {
+      assertEquals(x, unpkr.unpackObject());
+    }
+    assertEquals(Arrays.asList(Long.MAX_VALUE, "end"), unpkr.unpackObject());
+    unpkr = new LeonUnpacker(bytes);
+    for(int i = 0; i <= values.length; i++) {
+      unpkr.skipObject(unpkr.nextTag());
+    }
+    assertEquals(bytes.length, unpkr.position());
+
+    LeonReader reader = new LeonReader(new LeonUnpacker(bytes));
+    for(long x : values) {
+      assertEquals(LeonReader.Event.INT, reader.next());
+      assertEquals(x, reader.longValue());
+    }
+
+    List<Object> decoded = new ArrayList<>();
+    LeonPushDecoder decoder = new LeonPushDecoder(false, decoded::add);
+    for(byte b : bytes) {
+      decoder.feed(ByteBuffer.wrap(new byte[]{b}));
+    }
+    assertEquals(values.length + 1, decoded.size());
+    assertEquals(Long.MIN_VALUE, decoded.get(8));
+    assertFalse(decoder.hasPartialObject());
+  }
+
+  public void testBufferPool() throws IOException {
+    LeonBufferPool pool = new LeonBufferPool(true, 3000, 2);
+    ByteBuffer a = pool.acquire(10);
+    assertTrue(a.isDirect());
+    assertEquals(10, a.limit());
+    assertEquals(LeonBufferPool.MIN_SIZE, a.capacity());
+    ByteBuffer b = pool.acquire(3000);
+    assertEquals(4096, b.capacity());
+    pool.release(a);
+    pool.release(ByteBuffer.allocate(256)); // not from this pool
+    assertSame(a, pool.acquire(200));
+    assertEquals(1, pool.hits());
+    assertEquals(2, pool.misses());
+    assertEquals(5000, pool.acquire(5000).capacity());
+
+    Random rnd = new Random(3);
+    byte[][] blobs = {new byte[0], new byte[100], new byte[20000], new byte[70000]};
+    LeonPacker pkr = new LeonPacker();
+    pkr.packHeader();
+    for(byte[] blob : blobs) {
+      rnd.nextBytes(blob);
+      pkr.packBytes(blob);
+    }
+    pkr.packBytes(blobs[2]).packString("end");
+    byte[] bytes = pkr.toByteArray();
+    byte[] body = Arrays.copyOfRange(bytes, 7, bytes.length);
+
+    for(boolean stream : new boolean[]{false, true}) {
+      LeonUnpacker unpkr = stream ? new LeonUnpacker(new ByteArrayInputStream(bytes)) : new LeonUnpacker(body);
+      unpkr.setBufferPool(pool);
+      ByteBuffer heap = ByteBuffer.allocate(100);
+      assertEquals(0, unpkr.unpackBytesInto(heap));
+      assertEquals(100, unpkr.unpackBytesInto(heap));
+      assertTrue(Arrays.equals(blobs[1], heap.array()));
+      ByteBuffer slice = unpkr.unpackBytesSlice();
+      byte[] copy = new byte[slice.remaining()];
+      slice.get(copy);
+      assertTrue(Arrays.equals(blobs[2], copy));
+      ByteBuffer pooled = unpkr.unpackPooledBytes();
+      assertTrue(pooled.isDirect());
+      assertEquals(ByteBuffer.wrap(blobs[3]), pooled);
+      pool.release(pooled);
+      try {
+        unpkr.unpackBytesInto(ByteBuffer.allocateDirect(10));
+        fail();
+      } catch(LeonException e) {
+        assertEquals(LeonException.Reason.UnableToUnpackObj, e.reason());
+      }
+      assertEquals("end", unpkr.unpackString()); // the value was skipped
+    }
+
+    // Skipping large values from a stream reuses one scratch buffer
+    LeonUnpacker unpkr = new LeonUnpacker(new ByteArrayInputStream(bytes));
+    for(int i = 0; i < blobs.length + 1; i++) {
+      unpkr.skipObject(unpkr.nextTag());
+    }
+    assertEquals("end", unpkr.unpackString());
+  }
+
+  public void testPools() throws Exception {
+    Map<Object, Object> map = new HashMap<>();
+    map.put("key", Arrays.asList(1L, "two"));
+    byte[] expected = new LeonPacker().packHeader().packObject(map).toByteArray();
+
+    LeonPool<LeonPacker> packers = LeonPool.packers(2, () -> {
+      LeonPacker pkr = new LeonPacker();
+      pkr.setKeyDictionary(16, 0);
+      return pkr;
+    });
+    LeonPool<LeonUnpacker> unpackers = LeonPool.unpackers(2);
+    LeonPacker pkr = packers.acquire();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    pkr.reset(out).packHeader().packObject(map).flush();
+    byte[] withDictionary = out.toByteArray();
+    packers.release(pkr);
+    assertSame(pkr, packers.acquire());
+    assertTrue(Arrays.equals(withDictionary, pkr.packHeader().packObject(map).toByteArray())); // dictionary restarted
+
+    LeonUnpacker unpkr = unpackers.acquire();
+    unpkr.reset(new ByteArrayInputStream(withDictionary));
+    assertEquals(map, unpkr.unpackObject());
+    unpkr.reset(Arrays.copyOfRange(withDictionary, 7, withDictionary.length));
+    assertEquals(map, unpkr.unpackObject());
+    assertEquals(0, unpkr.major);
+    unpkr.reset(ByteBuffer.wrap(expected));
+    unpkr.unpackHeader();
+    assertEquals(map, unpkr.unpackObject());
+    unpackers.release(unpkr);
+    packers.release(pkr);
+
+    // A large value does not leave a large buffer in the pool
+    pkr = packers.acquire();
+    pkr.packBytes(new byte[1 << 20]);
+    packers.release(pkr);
+    assertSame(pkr, packers.acquire());
+    assertTrue(pkr.asByteBuffer().array().length <= LeonPool.MAX_RETAINED_SIZE);
+    packers.release(pkr);
+
+    Thread[] threads = new Thread[4];
+    final Throwable[] failure = new Throwable[1];
+    for(int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(() -> {
+        try {
+          for(int i = 0; i < 1000; i++) {
+            LeonPacker p = packers.acquire();
+            byte[] bytes = p.packObject(map).toByteArray();
+            packers.release(p);
+            LeonUnpacker u = unpackers.acquire();
+            u.reset(bytes);
+            assertEquals(map, u.unpackObject());
+            unpackers.release(u);
+          }
+        } catch(Throwable e) {
+          failure[0] = e;
+        }
+      });
+      threads[t].start();
+    }
+    for(Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(failure[0]);
+    assertEquals(4004, packers.hits() + packers.created());
+    assertEquals(packers.created() - packers.dropped(), packers.idle());
+    assertTrue(packers.idle() <= 2);
+    assertEquals(4001, unpackers.hits() + unpackers.created());
+  }
+
+  public void testCodegenErrors() throws IOException {
+    String source = "@leon.codegen.LeonSerializable class Holder {\n"
+      + "  @leon.codegen.LeonSerializable private static class Hidden { int x; }\n"
+      + "  @leon.codegen.LeonSerializable static class Secret { private int x; }\n"
+      + "}\n";
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///Holder.java"), JavaFileObject.Kind.SOURCE) {
+      @Override
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return source;
+      }
+    };
+    new File("out/codegen").mkdirs();
+    JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics,
+      Arrays.asList("-proc:only", "-s", "out/codegen", "-classpath", System.getProperty("java.class.path")),
+      null, Collections.singletonList(file));
+    task.setProcessors(Collections.singletonList(new LeonProcessor()));
+    assertFalse(task.call());
+    List<String> errors = new ArrayList<>();
+    for(Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+      if(d.getKind() == Diagnostic.Kind.ERROR) {
+        errors.add(d.getMessage(null));
+      }
+    }
+    // the implicit constructor of the private class is private too
+    assertEquals(3, errors.size());
+    assertTrue(errors.contains("@LeonSerializable classes and their enclosing classes cannot be private"));
+    assertTrue(errors.contains("Serialized fields cannot be private or final, mark them transient to skip them"));
+  }
+
+  public void testCodegen() throws IOException {
+    Point p = new Point();
+    p.x = -3;
+    p.y = 1L << 40;
+    p.name = "p\u00e8";
+    p.weight = 2.5;
+    p.visible = true;
+    p.code = 'z';
+    p.count = null;
+    p.shape = Shape.CIRCLE;
+    p.samples = new double[]{1.5, -2};
+    p.tags = Arrays.asList("a", "b");
+    p.child = new Point();
+    p.child.name = "child";
+    p.cached = 99;
+
+    LeonPacker pkr = new LeonPacker();
+    CoreTest_Point_LeonCodec.INSTANCE.pack(pkr, p);
+    CoreTest_Point_LeonCodec.INSTANCE.pack(pkr, null);
+    LeonUnpacker unpkr = new LeonUnpacker(pkr.toByteArray());
+    Point q = CoreTest_Point_LeonCodec.INSTANCE.unpack(unpkr);
+    assertNull(CoreTest_Point_LeonCodec.INSTANCE.unpack(unpkr));
+    assertEquals(-3, q.x);
+    assertEquals(1L << 40, q.y);
+    assertEquals("p\u00e8", q.name);
+    assertEquals(2.5, q.weight);
+    assertTrue(q.visible);
+    assertEquals('z', q.code);
+    assertNull(q.count);
+    assertEquals(Shape.CIRCLE, q.shape);
+    assertTrue(Arrays.equals(p.samples, q.samples));
+    assertEquals(p.tags, q.tags);
+    assertEquals("child", q.child.name);
+    assertNull(q.child.child);
+    assertEquals(0, q.cached);
+
+    // Generic decoding sees a map, unknown keys are skipped by the codec
+    unpkr = new LeonUnpacker(pkr.toByteArray());
+    Map<Object, Object> map = unpkr.unpackMap();
+    assertEquals(11, map.size());
+    assertEquals(-3L, map.get("x"));
+    assertEquals("CIRCLE", map.get("shape"));
+    map.put("extra", Arrays.asList(1L, 2L));
+    map.remove("y");
+    pkr.reset();
+    pkr.packMap(map);
+    q = CoreTest_Point_LeonCodec.INSTANCE.unpack(new LeonUnpacker(pkr.toByteArray()));
+    assertEquals(-3, q.x);
+    assertEquals(0, q.y);
+    assertEquals("child", q.child.name);
+
+    // Integers that do not fit the field are rejected, not truncated
+    Object[][] out_of_range = {{"x", 1L << 31}, {"code", -1L}, {"code", 0x10000L}, {"count", -(1L << 31) - 1}};
+    for(Object[] entry : out_of_range) {
+      Map<Object, Object> bad = new HashMap<>(map);
+      bad.put(entry[0], entry[1]);
+      pkr.reset();
+      pkr.packMap(bad);
+      try {
+        CoreTest_Point_LeonCodec.INSTANCE.unpack(new LeonUnpacker(pkr.toByteArray()));
+        fail();
+      } catch(LeonException e) {
+        assertEquals(LeonException.Reason.UnableToUnpackObj, e.reason());
+      }
+    }
+  }
+
+  enum Shape {SQUARE, CIRCLE}
+
+  @LeonSerializable
+  static class Point {
+    int x;
+    long y;
+    String name;
+    double weight;
+    boolean visible;
+    char code;
+    Integer count;
+    Shape shape;
+    double[] samples;
+    List<String> tags;
+    Point child;
+    transient int cached;
+    static int instances;
+  }
+
   private static void deleteFile(String path) {
     assertTrue(new File(path).delete());
   }
 
+  static class Temperature {
+    double kelvin;
+  }
+
   static class MyObj implements ToLeon {
     private int a = 7;
 
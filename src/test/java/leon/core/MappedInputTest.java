@@ -0,0 +1,85 @@
+/*
+  Copyright 2022 Luca Boasso. All rights reserved.
+  Use of this source code is governed by a MIT
+  license that can be found in the LICENSE file.
+*/
+
+package leon.core;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+  LeonInput.Mapped with chunks a few bytes long, so that values straddle
+  chunk boundaries. The chunk size constructor is package-private.
+*/
+public class MappedInputTest extends TestCase {
+  private static List<Object> values() {
+    List<Object> values = new ArrayList<>();
+    for(int i = 0; i < 40; i++) {
+      values.add(i % 2 == 0 ? (long) i << (i % 60) : -((long) i << (i % 60)) - 1);
+      values.add(1.0 / (i + 1));
+      values.add((float) i + 0.25f);
+      values.add(new String(new char[i * 3]).replace('\0', (char) ('a' + i % 26)) + "\u00e9\u20ac");
+      values.add(Arrays.asList(Long.MAX_VALUE, "x", null, true));
+    }
+    return values;
+  }
+
+  public void testSmallChunks() throws IOException {
+    String out_bin = "out/testSmallChunks.leon";
+    new File("out").mkdirs();
+    List<Object> values = values();
+    LeonPacker pkr = new LeonPacker(out_bin);
+    long[] offsets = new long[values.size() + 2];
+    for(int i = 0; i < values.size(); i++) {
+      offsets[i] = pkr.position();
+      pkr.packObject(values.get(i));
+    }
+    offsets[values.size()] = pkr.position();
+    pkr.packDoubleArray(new double[]{0.5, -1, 3e300});
+    offsets[values.size() + 1] = pkr.position();
+    pkr.close();
+
+    for(int chunkSize = 1; chunkSize <= 17; chunkSize++) {
+      try(FileChannel channel = FileChannel.open(Paths.get(out_bin))) {
+        LeonInput.Mapped input = new LeonInput.Mapped(channel, chunkSize);
+        LeonUnpacker unpkr = new LeonUnpacker(input);
+        unpkr.unpackHeader();
+        for(int i = 0; i < values.size(); i++) {
+          assertEquals(offsets[i], unpkr.position());
+          assertEquals(values.get(i), unpkr.unpackObject());
+        }
+        assertTrue(Arrays.equals(new double[]{0.5, -1, 3e300}, unpkr.unpackDoubleArray(null)));
+        assertEquals(offsets[values.size() + 1], unpkr.position());
+        assertEquals(Tags.EOF, unpkr.nextTag());
+
+        // Seeking to every chunk boundary and back to every object
+        for(long p = 0; p <= input.size(); p += chunkSize) {
+          input.position(p);
+          assertEquals(p, input.position());
+        }
+        for(int i = values.size() - 1; i >= 0; i--) {
+          unpkr.position(offsets[i]);
+          assertEquals(values.get(i), unpkr.unpackObject());
+          assertEquals(offsets[i + 1], unpkr.position());
+        }
+        try {
+          input.position(LeonPacker.HEADER_SIZE);
+          input.readFully(new byte[(int) input.size()], 0, (int) input.size());
+          fail();
+        } catch(LeonException e) {
+          assertEquals(LeonException.Reason.UnableToUnpackObj, e.reason());
+        }
+      }
+    }
+    assertTrue(new File(out_bin).delete());
+  }
+}